@@ -26,6 +26,10 @@ android {
         sourceCompatibility = JavaVersion.VERSION_1_8
         targetCompatibility = JavaVersion.VERSION_1_8
     }
+    testOptions {
+        // Local unit tests run classes that log through android.util.Log
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
@@ -1,11 +1,9 @@
 package com.example.lunar_inventory;
 
 import android.content.Intent;
-import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageView;
@@ -14,12 +12,6 @@ import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-
 public class AddCategoryActivity extends AppCompatActivity {
     private static final int PICK_IMAGE = 1;
 
@@ -30,13 +22,14 @@ public class AddCategoryActivity extends AppCompatActivity {
 
     private DatabaseManager dbManager;
     private String selectedImagePath = null;
+    private CategoryPicker parentPicker;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_add_category);
 
-        dbManager = new DatabaseManager(this);
+        dbManager = DatabaseManager.getInstance(this);
 
         nameInput = findViewById(R.id.category_name_input);
         priceInput = findViewById(R.id.category_price_input);
@@ -44,6 +37,8 @@ public class AddCategoryActivity extends AppCompatActivity {
         imagePreview = findViewById(R.id.category_image_preview);
         selectImageButton = findViewById(R.id.category_select_image_button);
         saveButton = findViewById(R.id.category_save_button);
+        parentPicker = new CategoryPicker(this, parentCategorySpinner,
+                findViewById(R.id.parent_category_filter_input));
 
         loadParentCategories();
 
@@ -56,32 +51,8 @@ public class AddCategoryActivity extends AppCompatActivity {
     }
 
     private void loadParentCategories() {
-        List<Category> categories = getAllCategoriesRecursive();
-        List<String> categoryNames = new ArrayList<>();
-        categoryNames.add("None");
-
-        for (Category cat : categories) {
-            categoryNames.add(cat.name);
-        }
-
-        ArrayAdapter<String> adapter = new ArrayAdapter<>(this,
-                android.R.layout.simple_spinner_item, categoryNames);
-        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
-        parentCategorySpinner.setAdapter(adapter);
-    }
-
-    private List<Category> getAllCategoriesRecursive() {
-        List<Category> allCategories = new ArrayList<>();
-        addCategoriesRecursive(null, allCategories, 0);
-        return allCategories;
-    }
-
-    private void addCategoriesRecursive(Integer parentId, List<Category> result, int depth) {
-        List<Category> cats = dbManager.getCategories(parentId, false);
-        for (Category cat : cats) {
-            result.add(cat);
-            addCategoriesRecursive(cat.id, result, depth + 1);
-        }
+        dbManager.read(this, DatabaseManager::getCategoryTree,
+                tree -> parentPicker.setChoices(tree.getNodes(), null));
     }
 
     @Override
@@ -90,25 +61,20 @@ public class AddCategoryActivity extends AppCompatActivity {
 
         if (requestCode == PICK_IMAGE && resultCode == RESULT_OK && data != null) {
             Uri imageUri = data.getData();
-            try {
-                Bitmap bitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), imageUri);
-                imagePreview.setImageBitmap(bitmap);
-                selectedImagePath = saveImageToInternalStorage(bitmap);
-            } catch (IOException e) {
-                Toast.makeText(this, "Failed to load image", Toast.LENGTH_SHORT).show();
-            }
-        }
-    }
-
-    private String saveImageToInternalStorage(Bitmap bitmap) {
-        File directory = getFilesDir();
-        File file = new File(directory, "category_" + System.currentTimeMillis() + ".jpg");
-
-        try (FileOutputStream fos = new FileOutputStream(file)) {
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, fos);
-            return file.getAbsolutePath();
-        } catch (IOException e) {
-            return null;
+            ThumbnailLoader.getInstance(this).clear(imagePreview);
+            saveButton.setEnabled(false);
+            ImageIngest.getInstance(this).ingest(this, imageUri, path -> {
+                saveButton.setEnabled(true);
+                if (path == null) {
+                    Toast.makeText(this, "Failed to load image", Toast.LENGTH_SHORT).show();
+                    if (selectedImagePath != null) {
+                        ThumbnailLoader.getInstance(this).show(selectedImagePath, imagePreview);
+                    }
+                    return;
+                }
+                selectedImagePath = path;
+                ThumbnailLoader.getInstance(this).show(path, imagePreview);
+            });
         }
     }
 
@@ -130,25 +96,20 @@ public class AddCategoryActivity extends AppCompatActivity {
             }
         }
 
-        Integer parentId = null;
-        if (parentCategorySpinner.getSelectedItemPosition() > 0) {
-            List<Category> categories = getAllCategoriesRecursive();
-            parentId = categories.get(parentCategorySpinner.getSelectedItemPosition() - 1).id;
-        }
-
-        long result = dbManager.addCategory(name, selectedImagePath, price, parentId);
-
-        if (result != -1) {
-            Toast.makeText(this, "Category added successfully", Toast.LENGTH_SHORT).show();
-            finish();
-        } else {
-            Toast.makeText(this, "Failed to add category", Toast.LENGTH_SHORT).show();
-        }
-    }
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        dbManager.close();
+        Double categoryPrice = price;
+        Integer categoryParentId = parentPicker.getSelectedCategoryId();
+        String imagePath = selectedImagePath;
+        saveButton.setEnabled(false);
+        dbManager.write(this,
+                db -> db.addCategory(name, imagePath, categoryPrice, categoryParentId),
+                result -> {
+                    if (result != -1) {
+                        Toast.makeText(this, "Category added successfully", Toast.LENGTH_SHORT).show();
+                        finish();
+                    } else {
+                        saveButton.setEnabled(true);
+                        Toast.makeText(this, "Failed to add category", Toast.LENGTH_SHORT).show();
+                    }
+                });
     }
 }
\ No newline at end of file
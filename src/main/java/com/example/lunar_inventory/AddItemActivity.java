@@ -1,11 +1,9 @@
 package com.example.lunar_inventory;
 
 import android.content.Intent;
-import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.EditText;
@@ -15,12 +13,6 @@ import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-
 public class AddItemActivity extends AppCompatActivity {
     private static final int PICK_IMAGE = 1;
 
@@ -32,13 +24,14 @@ public class AddItemActivity extends AppCompatActivity {
 
     private DatabaseManager dbManager;
     private String selectedImagePath = null;
+    private CategoryPicker categoryPicker;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_add_item);
 
-        dbManager = new DatabaseManager(this);
+        dbManager = DatabaseManager.getInstance(this);
 
         nameInput = findViewById(R.id.name_input);
         priceInput = findViewById(R.id.price_input);
@@ -48,6 +41,7 @@ public class AddItemActivity extends AppCompatActivity {
         imagePreview = findViewById(R.id.image_preview);
         selectImageButton = findViewById(R.id.select_image_button);
         saveButton = findViewById(R.id.save_button);
+        categoryPicker = new CategoryPicker(this, categorySpinner, findViewById(R.id.category_filter_input));
 
         // Load categories
         loadCategories();
@@ -67,19 +61,10 @@ public class AddItemActivity extends AppCompatActivity {
         saveButton.setOnClickListener(v -> saveItem());
     }
 
+    // Every category, not just the top level, so items can go straight into a subcategory
     private void loadCategories() {
-        List<Category> categories = dbManager.getCategories(null, false);
-        List<String> categoryNames = new ArrayList<>();
-        categoryNames.add("None");
-
-        for (Category cat : categories) {
-            categoryNames.add(cat.name);
-        }
-
-        ArrayAdapter<String> adapter = new ArrayAdapter<>(this,
-                android.R.layout.simple_spinner_item, categoryNames);
-        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
-        categorySpinner.setAdapter(adapter);
+        dbManager.read(this, DatabaseManager::getCategoryTree,
+                tree -> categoryPicker.setChoices(tree.getNodes(), null));
     }
 
     @Override
@@ -88,25 +73,20 @@ public class AddItemActivity extends AppCompatActivity {
 
         if (requestCode == PICK_IMAGE && resultCode == RESULT_OK && data != null) {
             Uri imageUri = data.getData();
-            try {
-                Bitmap bitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), imageUri);
-                imagePreview.setImageBitmap(bitmap);
-                selectedImagePath = saveImageToInternalStorage(bitmap);
-            } catch (IOException e) {
-                Toast.makeText(this, "Failed to load image", Toast.LENGTH_SHORT).show();
-            }
-        }
-    }
-
-    private String saveImageToInternalStorage(Bitmap bitmap) {
-        File directory = getFilesDir();
-        File file = new File(directory, "item_" + System.currentTimeMillis() + ".jpg");
-
-        try (FileOutputStream fos = new FileOutputStream(file)) {
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, fos);
-            return file.getAbsolutePath();
-        } catch (IOException e) {
-            return null;
+            ThumbnailLoader.getInstance(this).clear(imagePreview);
+            saveButton.setEnabled(false);
+            ImageIngest.getInstance(this).ingest(this, imageUri, path -> {
+                saveButton.setEnabled(true);
+                if (path == null) {
+                    Toast.makeText(this, "Failed to load image", Toast.LENGTH_SHORT).show();
+                    if (selectedImagePath != null) {
+                        ThumbnailLoader.getInstance(this).show(selectedImagePath, imagePreview);
+                    }
+                    return;
+                }
+                selectedImagePath = path;
+                ThumbnailLoader.getInstance(this).show(path, imagePreview);
+            });
         }
     }
 
@@ -146,25 +126,21 @@ public class AddItemActivity extends AppCompatActivity {
             }
         }
 
-        Integer categoryId = null;
-        if (categorySpinner.getSelectedItemPosition() > 0) {
-            List<Category> categories = dbManager.getCategories(null, false);
-            categoryId = categories.get(categorySpinner.getSelectedItemPosition() - 1).id;
-        }
-
-        long result = dbManager.addItem(name, selectedImagePath, price, stock, categoryId, useCategoryPrice);
-
-        if (result != -1) {
-            Toast.makeText(this, "Item added successfully", Toast.LENGTH_SHORT).show();
-            finish();
-        } else {
-            Toast.makeText(this, "Failed to add item", Toast.LENGTH_SHORT).show();
-        }
-    }
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        dbManager.close();
+        Double itemPrice = price;
+        Integer itemStock = stock;
+        Integer itemCategoryId = categoryPicker.getSelectedCategoryId();
+        String imagePath = selectedImagePath;
+        saveButton.setEnabled(false);
+        dbManager.write(this,
+                db -> db.addItem(name, imagePath, itemPrice, itemStock, itemCategoryId, useCategoryPrice),
+                result -> {
+                    if (result != -1) {
+                        Toast.makeText(this, "Item added successfully", Toast.LENGTH_SHORT).show();
+                        finish();
+                    } else {
+                        saveButton.setEnabled(true);
+                        Toast.makeText(this, "Failed to add item", Toast.LENGTH_SHORT).show();
+                    }
+                });
     }
 }
\ No newline at end of file
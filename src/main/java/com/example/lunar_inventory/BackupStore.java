@@ -0,0 +1,146 @@
+package com.example.lunar_inventory;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// The CSV backups export history re-exports from. Each distinct backup is stored once,
+// gzipped, under files/exports/backup/<first two hex digits>/<sha-256 of the CSV>.csv.gz,
+// and export records point at it by hash, so exporting the same sales again stores nothing.
+// Report snapshots (see ReportArchive) are kept the same way, under their own suffix.
+// Backups from before the store are plain backup_*.csv files next to it.
+class BackupStore {
+    static final String BACKUP_DIR = "exports/backup";
+    static final String CSV_SUFFIX = ".csv.gz";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File storeDir;
+
+    BackupStore(Context context) {
+        storeDir = new File(context.getFilesDir(), BACKUP_DIR);
+    }
+
+    // Returns the hash the CSV is kept under. Nothing is written when it is already there.
+    String put(File csv) throws IOException {
+        return put(csv, CSV_SUFFIX);
+    }
+
+    // Same for any other file kept with an export, told apart by suffix
+    String put(File source, String suffix) throws IOException {
+        String hash = hashOf(source);
+        File stored = fileFor(hash, suffix);
+        if (stored.exists()) {
+            return hash;
+        }
+        File shard = stored.getParentFile();
+        if (!shard.exists() && !shard.mkdirs()) {
+            throw new IOException("Could not create " + shard);
+        }
+
+        // Written under a temporary name, so a crash never leaves a half-written backup behind
+        File tmp = new File(stored.getPath() + ".tmp");
+        try (FileChannel in = new FileInputStream(source).getChannel();
+             WritableByteChannel out = Channels.newChannel(
+                     new GZIPOutputStream(new FileOutputStream(tmp), BUFFER_SIZE))) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(stored)) {
+            tmp.delete();
+            throw new IOException("Could not move " + tmp + " into place");
+        }
+        return hash;
+    }
+
+    boolean contains(String hash) {
+        return contains(hash, CSV_SUFFIX);
+    }
+
+    boolean contains(String hash, String suffix) {
+        return fileFor(hash, suffix).exists();
+    }
+
+    // The CSV as it was put in
+    InputStream open(String hash) throws IOException {
+        return open(hash, CSV_SUFFIX);
+    }
+
+    InputStream open(String hash, String suffix) throws IOException {
+        return new GZIPInputStream(new FileInputStream(fileFor(hash, suffix)), BUFFER_SIZE);
+    }
+
+    // Unpacks a backup straight into target
+    void restore(String hash, File target) throws IOException {
+        try (ReadableByteChannel in = Channels.newChannel(open(hash));
+             FileChannel out = new FileOutputStream(target).getChannel()) {
+            long position = 0;
+            long read;
+            while ((read = out.transferFrom(in, position, BUFFER_SIZE)) > 0) {
+                position += read;
+            }
+        } catch (IOException e) {
+            target.delete();
+            throw e;
+        }
+    }
+
+    // Only once no export record points at the hash any more
+    void delete(String hash) {
+        delete(hash, CSV_SUFFIX);
+    }
+
+    void delete(String hash, String suffix) {
+        File stored = fileFor(hash, suffix);
+        stored.delete();
+        File shard = stored.getParentFile();
+        String[] left = shard.list();
+        if (left != null && left.length == 0) {
+            shard.delete();
+        }
+    }
+
+    private File fileFor(String hash, String suffix) {
+        return new File(new File(storeDir, hash.substring(0, 2)), hash + suffix);
+    }
+
+    private static String hashOf(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (FileChannel in = new FileInputStream(file).getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.lunar_inventory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// Keeps the latest CatalogSnapshot. Committed changes only mark what went stale; the next
+// get() brings the snapshot up to date, re-reading single items where it can and the whole
+// catalog only after category edits and resets.
+class CatalogCache {
+    private final Object pendingLock = new Object();
+    private boolean rebuildPending = true;
+    private final Set<Integer> staleItems = new LinkedHashSet<>();
+
+    // Only touched inside get()
+    private CatalogSnapshot snapshot;
+    private long version;
+
+    // Runs on the thread that committed the change, before any screen hears of it
+    void onCommitted(DataChange change) {
+        synchronized (pendingLock) {
+            switch (change.type) {
+                case ITEM:
+                case ITEM_COUNTERS:
+                    staleItems.add(change.id);
+                    break;
+                case CATEGORY_SUBTREE:
+                case SALES_RESET:
+                    rebuildPending = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // Returns the same snapshot, and does no I/O, as long as nothing in the catalog changed
+    synchronized CatalogSnapshot get(DatabaseManager dbManager) {
+        boolean rebuild;
+        List<Integer> itemIds;
+        synchronized (pendingLock) {
+            rebuild = rebuildPending || snapshot == null;
+            rebuildPending = false;
+            itemIds = new ArrayList<>(staleItems);
+            staleItems.clear();
+        }
+
+        try {
+            if (rebuild) {
+                snapshot = CatalogSnapshot.build(++version,
+                        dbManager.getAllCategories(false), dbManager.getAllItems(false));
+            } else {
+                for (int itemId : itemIds) {
+                    snapshot = snapshot.withItem(++version, itemId, dbManager.getItem(itemId));
+                }
+            }
+        } catch (RuntimeException e) {
+            // Try again from scratch next time rather than keep a half-applied update
+            synchronized (pendingLock) {
+                rebuildPending = true;
+            }
+            throw e;
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.lunar_inventory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The shown categories and items, indexed the way the home screen walks them. A snapshot is
+// never modified once built: an edit produces a new snapshot that shares every list the edit
+// did not touch, so the main thread can hold on to one without any locking.
+class CatalogSnapshot {
+    // Key for the top level; category ids start at 1
+    private static final int ROOT = 0;
+
+    public final long version;
+    // Shared by every copy until the categories change
+    public final CategoryTree categoryTree;
+    private final Map<Integer, Category> categoriesById;
+    private final Map<Integer, List<Category>> categoriesByParent;
+    private final Map<Integer, Item> itemsById;
+    private final Map<Integer, List<Item>> itemsByCategory;
+
+    private CatalogSnapshot(long version, CategoryTree categoryTree, Map<Integer, Category> categoriesById,
+                            Map<Integer, List<Category>> categoriesByParent,
+                            Map<Integer, Item> itemsById, Map<Integer, List<Item>> itemsByCategory) {
+        this.version = version;
+        this.categoryTree = categoryTree;
+        this.categoriesById = categoriesById;
+        this.categoriesByParent = categoriesByParent;
+        this.itemsById = itemsById;
+        this.itemsByCategory = itemsByCategory;
+    }
+
+    // Both lists must be sorted by name, as getCategories() and getItems() return them
+    static CatalogSnapshot build(long version, List<Category> categories, List<Item> items) {
+        Map<Integer, Category> categoriesById = new HashMap<>();
+        Map<Integer, List<Category>> categoriesByParent = new HashMap<>();
+        for (Category category : categories) {
+            categoriesById.put(category.id, category);
+            listFor(categoriesByParent, key(category.parentCategory)).add(category);
+        }
+
+        Map<Integer, Item> itemsById = new HashMap<>();
+        Map<Integer, List<Item>> itemsByCategory = new HashMap<>();
+        for (Item item : items) {
+            itemsById.put(item.id, item);
+            listFor(itemsByCategory, key(item.categoryId)).add(item);
+        }
+        return new CatalogSnapshot(version, new CategoryTree(categories), categoriesById, categoriesByParent,
+                itemsById, itemsByCategory);
+    }
+
+    public List<Category> getCategories(Integer parentCategory) {
+        return unmodifiable(categoriesByParent.get(key(parentCategory)));
+    }
+
+    public List<Item> getItems(Integer categoryId) {
+        return unmodifiable(itemsByCategory.get(key(categoryId)));
+    }
+
+    public Category getCategory(int categoryId) {
+        return categoriesById.get(categoryId);
+    }
+
+    // A copy with one item replaced, added or, when it is null or hidden, removed. Only the
+    // lists of the item's old and new category are copied.
+    CatalogSnapshot withItem(long newVersion, int itemId, Item item) {
+        if (item != null && !item.shown) item = null;
+
+        Map<Integer, Item> newItemsById = new HashMap<>(itemsById);
+        Map<Integer, List<Item>> newItemsByCategory = new HashMap<>(itemsByCategory);
+
+        Item old = newItemsById.remove(itemId);
+        if (old != null) {
+            List<Item> list = new ArrayList<>(newItemsByCategory.get(key(old.categoryId)));
+            list.remove(old);
+            if (list.isEmpty()) {
+                newItemsByCategory.remove(key(old.categoryId));
+            } else {
+                newItemsByCategory.put(key(old.categoryId), list);
+            }
+        }
+
+        if (item != null) {
+            newItemsById.put(itemId, item);
+            List<Item> current = newItemsByCategory.get(key(item.categoryId));
+            List<Item> list = current == null ? new ArrayList<>() : new ArrayList<>(current);
+            int position = 0;
+            while (position < list.size() && list.get(position).name.compareTo(item.name) <= 0) {
+                position++;
+            }
+            list.add(position, item);
+            newItemsByCategory.put(key(item.categoryId), list);
+        }
+        return new CatalogSnapshot(newVersion, categoryTree, categoriesById, categoriesByParent,
+                newItemsById, newItemsByCategory);
+    }
+
+    // Rows with no parent are stored with either NULL or 0
+    private static int key(Integer id) {
+        return id == null ? ROOT : id;
+    }
+
+    private static <T> List<T> listFor(Map<Integer, List<T>> map, int key) {
+        List<T> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            map.put(key, list);
+        }
+        return list;
+    }
+
+    private static <T> List<T> unmodifiable(List<T> list) {
+        return list == null ? Collections.<T>emptyList() : Collections.unmodifiableList(list);
+    }
+}
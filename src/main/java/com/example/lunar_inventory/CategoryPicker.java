@@ -0,0 +1,96 @@
+package com.example.lunar_inventory;
+
+import android.content.Context;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.Spinner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+// A category spinner fed from a CategoryTree, indented by depth, with "None" first. Typing
+// in the filter box narrows the list to matching names; the category currently selected
+// always stays in the list, so filtering never changes the choice on its own.
+class CategoryPicker {
+    private static final String INDENT = "    ";
+
+    private final Context context;
+    private final Spinner spinner;
+    private final String noneLabel;
+    private List<CategoryTree.Node> choices = Collections.emptyList();
+    // What the spinner currently lists, after "None"
+    private List<CategoryTree.Node> shown = Collections.emptyList();
+    private String filter = "";
+
+    CategoryPicker(Context context, Spinner spinner, EditText filterInput) {
+        this(context, spinner, filterInput, "None");
+    }
+
+    CategoryPicker(Context context, Spinner spinner, EditText filterInput, String noneLabel) {
+        this.context = context;
+        this.spinner = spinner;
+        this.noneLabel = noneLabel;
+        filterInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                filter = s.toString().trim().toLowerCase(Locale.getDefault());
+                show(getSelectedCategoryId());
+            }
+        });
+    }
+
+    public void setChoices(List<CategoryTree.Node> choices, Integer selectedId) {
+        this.choices = choices;
+        show(selectedId);
+    }
+
+    // null when "None" is selected
+    public Integer getSelectedCategoryId() {
+        int position = spinner.getSelectedItemPosition();
+        if (position <= 0 || position > shown.size()) return null;
+        return shown.get(position - 1).category.id;
+    }
+
+    private void show(Integer selectedId) {
+        List<CategoryTree.Node> nodes = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        labels.add(noneLabel);
+
+        int selectedPosition = 0;
+        for (CategoryTree.Node node : choices) {
+            boolean selected = selectedId != null && node.category.id == selectedId;
+            if (!selected && !matches(node)) continue;
+
+            nodes.add(node);
+            StringBuilder label = new StringBuilder();
+            for (int i = 0; i < node.depth; i++) {
+                label.append(INDENT);
+            }
+            labels.add(label.append(node.category.name).toString());
+            if (selected) {
+                selectedPosition = labels.size() - 1;
+            }
+        }
+        shown = nodes;
+
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(context,
+                android.R.layout.simple_spinner_item, labels);
+        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        spinner.setAdapter(adapter);
+        spinner.setSelection(selectedPosition);
+    }
+
+    private boolean matches(CategoryTree.Node node) {
+        return filter.isEmpty() || node.category.name.toLowerCase(Locale.getDefault()).contains(filter);
+    }
+}
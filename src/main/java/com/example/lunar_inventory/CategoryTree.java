@@ -0,0 +1,72 @@
+package com.example.lunar_inventory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The category hierarchy flattened in depth-first order, built from one list of categories.
+// Each node knows the range of positions its subtree occupies, so "is X below Y" is two
+// comparisons instead of a walk up the parent chain.
+class CategoryTree {
+    static class Node {
+        public final Category category;
+        public final int depth;
+        // Position of this node, and of the last node in its subtree
+        final int first;
+        int last;
+
+        Node(Category category, int depth, int first) {
+            this.category = category;
+            this.depth = depth;
+            this.first = first;
+        }
+    }
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final Map<Integer, Node> nodesById = new HashMap<>();
+
+    // categories must be sorted by name; siblings keep that order
+    CategoryTree(List<Category> categories) {
+        Map<Integer, List<Category>> children = new HashMap<>();
+        for (Category category : categories) {
+            int parent = category.parentCategory == null ? 0 : category.parentCategory;
+            List<Category> siblings = children.get(parent);
+            if (siblings == null) {
+                siblings = new ArrayList<>();
+                children.put(parent, siblings);
+            }
+            siblings.add(category);
+        }
+        // Categories whose parent is not in the list cannot be reached, as before
+        addSubtrees(children, 0, 0);
+    }
+
+    private void addSubtrees(Map<Integer, List<Category>> children, int parentId, int depth) {
+        List<Category> siblings = children.get(parentId);
+        if (siblings == null) return;
+        for (Category category : siblings) {
+            Node node = new Node(category, depth, nodes.size());
+            nodes.add(node);
+            nodesById.put(category.id, node);
+            addSubtrees(children, category.id, depth + 1);
+            node.last = nodes.size() - 1;
+        }
+    }
+
+    public List<Node> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    public Node getNode(int categoryId) {
+        return nodesById.get(categoryId);
+    }
+
+    // True when categoryId is rootId itself or anywhere below it
+    public boolean isInSubtree(int categoryId, int rootId) {
+        Node node = nodesById.get(categoryId);
+        Node root = nodesById.get(rootId);
+        return node != null && root != null && root.first <= node.first && node.first <= root.last;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.lunar_inventory;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Delivers DataChanges to screens on the main thread. Changes published before the main
+// thread gets to them are handed over together, so a group commit of many sales costs
+// one callback rather than one per sale.
+class ChangeBus {
+    public interface Listener {
+        void onDataChanged(List<DataChange> changes);
+    }
+
+    // Told about each change on the thread that committed it, before any listener
+    public interface CommitObserver {
+        void onCommitted(DataChange change);
+    }
+
+    private final CommitObserver observer;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Object lock = new Object();
+    private List<DataChange> pending = new ArrayList<>();
+
+    ChangeBus(CommitObserver observer) {
+        this.observer = observer;
+    }
+
+    void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    void publish(DataChange change) {
+        observer.onCommitted(change);
+
+        boolean schedule;
+        synchronized (lock) {
+            schedule = pending.isEmpty();
+            pending.add(change);
+        }
+        if (schedule) {
+            mainHandler.post(this::dispatch);
+        }
+    }
+
+    private void dispatch() {
+        List<DataChange> changes;
+        synchronized (lock) {
+            changes = pending;
+            pending = new ArrayList<>();
+        }
+        for (Listener listener : listeners) {
+            listener.onDataChanged(changes);
+        }
+    }
+}
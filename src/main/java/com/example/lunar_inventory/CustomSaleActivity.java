@@ -20,7 +20,7 @@ public class CustomSaleActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_custom_sale);
 
-        dbManager = new DatabaseManager(this);
+        dbManager = DatabaseManager.getInstance(this);
 
         itemId = getIntent().getIntExtra("item_id", -1);
         basePrice = getIntent().getDoubleExtra("base_price", 0.0);
@@ -54,10 +54,4 @@ public class CustomSaleActivity extends AppCompatActivity {
             }
         });
     }
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        dbManager.close();
-    }
 }
\ No newline at end of file
@@ -0,0 +1,38 @@
+package com.example.lunar_inventory;
+
+// One committed change, published by DatabaseManager once its transaction is done
+class DataChange {
+    enum Type {
+        // total_sold / current_stock of one item moved; id is the item
+        ITEM_COUNTERS,
+        // An item was added, edited or deleted; id is the item
+        ITEM,
+        // A category and everything below it may have changed; id is the category
+        CATEGORY_SUBTREE,
+        // One recorded sale was edited or deleted; id is the sale
+        SALE,
+        // A new batch was started; id is the new batch
+        BATCH_ROLLED,
+        // Every sale was deleted and every counter reset; id is unused
+        SALES_RESET,
+        // An export record was saved or deleted; id is the record
+        EXPORTS
+    }
+
+    public final Type type;
+    public final int id;
+
+    public DataChange(Type type, int id) {
+        this.type = type;
+        this.id = id;
+    }
+
+    public boolean affectsSales() {
+        return type == Type.ITEM_COUNTERS || type == Type.SALE
+                || type == Type.BATCH_ROLLED || type == Type.SALES_RESET;
+    }
+
+    public boolean affectsCatalog() {
+        return type == Type.ITEM || type == Type.CATEGORY_SUBTREE || type == Type.SALES_RESET;
+    }
+}
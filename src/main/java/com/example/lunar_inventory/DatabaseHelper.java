@@ -1,15 +1,18 @@
 package com.example.lunar_inventory;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "lunar_inventory.db";
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 12;
 
     public DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Lets readers (exports, history) work from a snapshot while sales keep being written
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -40,28 +43,103 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 "id_category INTEGER," +
                 "FOREIGN KEY(id_category) REFERENCES category(id_category))");
 
+        createSaleTable(db);
+        createExportRecordTable(db);
+
+        createIndexes(db);
+        createTimeIndexes(db);
+        createCategoryClosure(db);
+        createSaleJournalCheckpoint(db);
+        createSaleRollup(db);
+        createSaleFilterIndexes(db);
+
+        // Create initial sale batch
+        db.execSQL("INSERT INTO sale_batch (name) VALUES ('Batch 1')");
+    }
+
+    private void createSaleTable(SQLiteDatabase db) {
         db.execSQL("CREATE TABLE sale(" +
                 "id_sale INTEGER PRIMARY KEY AUTOINCREMENT," +
                 "sold_price REAL," +
-                "sale_time TEXT DEFAULT CURRENT_TIMESTAMP," +
+                "sale_time_ms INTEGER NOT NULL," +
                 "id_export INTEGER NOT NULL," +
                 "id_item INTEGER NOT NULL," +
                 "FOREIGN KEY(id_export) REFERENCES sale_batch(id_export)," +
                 "FOREIGN KEY(id_item) REFERENCES item(id_item))");
+    }
 
+    private void createExportRecordTable(SQLiteDatabase db) {
         db.execSQL("CREATE TABLE export_record(" +
                 "id_record INTEGER PRIMARY KEY AUTOINCREMENT," +
                 "filename TEXT NOT NULL," +
                 "filepath TEXT NOT NULL," +
-                "export_time TEXT DEFAULT CURRENT_TIMESTAMP," +
+                "export_time_ms INTEGER NOT NULL," +
                 "id_batch INTEGER," +
                 "format TEXT NOT NULL," +
                 "is_full_export INTEGER DEFAULT 0," +
                 "export_name TEXT," +
+                "backup_hash TEXT," +
+                "snapshot_hash TEXT," +
                 "FOREIGN KEY(id_batch) REFERENCES sale_batch(id_export))");
+    }
 
-        // Create initial sale batch
-        db.execSQL("INSERT INTO sale_batch (name) VALUES ('Batch 1')");
+    private void createIndexes(SQLiteDatabase db) {
+        // Export grouping and batch counters: covers the GROUP BY without touching the table
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_sale_export_item_price ON sale(id_export, id_item, sold_price)");
+
+        // Category browsing
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_item_category_shown ON item(id_category, shown)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_category_parent_shown ON category(parent_category, shown)");
+
+        // Smaller indexes for the home screen, which only ever lists shown rows
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_item_category_visible ON item(id_category, name) WHERE shown = 1");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_category_parent_visible ON category(parent_category, name) WHERE shown = 1");
+    }
+
+    private void createTimeIndexes(SQLiteDatabase db) {
+        // Date range MIN/MAX, history ordering and time range scans
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_sale_time_ms ON sale(sale_time_ms)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_sale_export_time_ms ON sale(id_export, sale_time_ms)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_export_record_time_ms ON export_record(export_time_ms)");
+    }
+
+    // Sale history filtered to one item, or to the items of a category subtree
+    private void createSaleFilterIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_sale_item_time_ms ON sale(id_item, sale_time_ms)");
+    }
+
+    // One row per (ancestor, descendant) pair, including each category with itself at depth 0,
+    // so subtree and ancestor lookups are a single indexed query
+    private void createCategoryClosure(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE category_closure(" +
+                "ancestor INTEGER NOT NULL," +
+                "descendant INTEGER NOT NULL," +
+                "depth INTEGER NOT NULL," +
+                "PRIMARY KEY(ancestor, descendant)," +
+                "FOREIGN KEY(ancestor) REFERENCES category(id_category)," +
+                "FOREIGN KEY(descendant) REFERENCES category(id_category))");
+        db.execSQL("CREATE INDEX idx_category_closure_descendant ON category_closure(descendant, depth)");
+    }
+
+    // Last sale journal entry written to the sale table, updated in the same transaction
+    private void createSaleJournalCheckpoint(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE sale_journal_checkpoint(" +
+                "id INTEGER PRIMARY KEY CHECK (id = 1)," +
+                "last_seq INTEGER NOT NULL)");
+        db.execSQL("INSERT INTO sale_journal_checkpoint (id, last_seq) VALUES (1, 0)");
+    }
+
+    // Sales per batch, item and price, kept in step with the sale table by every sale write
+    private void createSaleRollup(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE sale_rollup(" +
+                "id_export INTEGER NOT NULL," +
+                "id_item INTEGER NOT NULL," +
+                "sold_price REAL NOT NULL," +
+                "quantity INTEGER NOT NULL," +
+                "revenue REAL NOT NULL," +
+                "PRIMARY KEY(id_export, id_item, sold_price)," +
+                "FOREIGN KEY(id_export) REFERENCES sale_batch(id_export)," +
+                "FOREIGN KEY(id_item) REFERENCES item(id_item))");
     }
 
     @Override
@@ -80,5 +158,112 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         if (oldVersion < 3) {
             db.execSQL("ALTER TABLE export_record ADD COLUMN export_name TEXT");
         }
+        if (oldVersion < 4) {
+            createIndexes(db);
+        }
+        if (oldVersion < 5) {
+            createCategoryClosure(db);
+            db.execSQL("WITH RECURSIVE tree(ancestor, descendant, depth) AS (" +
+                    "  SELECT id_category, id_category, 0 FROM category" +
+                    "  UNION ALL" +
+                    "  SELECT t.ancestor, c.id_category, t.depth + 1 " +
+                    "  FROM tree t INNER JOIN category c ON c.parent_category = t.descendant" +
+                    ") INSERT INTO category_closure (ancestor, descendant, depth) " +
+                    "SELECT ancestor, descendant, depth FROM tree");
+        }
+        if (oldVersion < 6) {
+            createSaleJournalCheckpoint(db);
+        }
+        if (oldVersion < 7) {
+            createSaleRollup(db);
+            db.execSQL("INSERT INTO sale_rollup (id_export, id_item, sold_price, quantity, revenue) " +
+                    "SELECT id_export, id_item, IFNULL(sold_price, 0), COUNT(*), SUM(IFNULL(sold_price, 0)) " +
+                    "FROM sale GROUP BY id_export, id_item, IFNULL(sold_price, 0)");
+        }
+        if (oldVersion < 8) {
+            // Filled in when the tables are rebuilt for version 12
+            db.execSQL("ALTER TABLE sale ADD COLUMN sale_time_ms INTEGER");
+            db.execSQL("ALTER TABLE export_record ADD COLUMN export_time_ms INTEGER");
+            db.execSQL("DROP INDEX IF EXISTS idx_sale_time");
+            createTimeIndexes(db);
+        }
+        if (oldVersion < 9) {
+            createSaleFilterIndexes(db);
+        }
+        if (oldVersion < 10) {
+            // Older records keep finding their plain backup_*.csv by file name
+            db.execSQL("ALTER TABLE export_record ADD COLUMN backup_hash TEXT");
+        }
+        if (oldVersion < 11) {
+            // Older records re-export from their CSV backup
+            db.execSQL("ALTER TABLE export_record ADD COLUMN snapshot_hash TEXT");
+        }
+        if (oldVersion < 12) {
+            // Databases from before version 8 still carry the old text columns. SQLite on
+            // older devices cannot drop a column, so those tables are rebuilt without them.
+            if (hasColumn(db, "sale", "sale_time")) {
+                rebuildWithoutTextTime(db, "sale", "sale_time", "sale_time_ms",
+                        "id_sale, sold_price, id_export, id_item");
+            }
+            if (hasColumn(db, "export_record", "export_time")) {
+                rebuildWithoutTextTime(db, "export_record", "export_time", "export_time_ms",
+                        "id_record, filename, filepath, id_batch, format, is_full_export, " +
+                                "export_name, backup_hash, snapshot_hash");
+            }
+            // Dropping the old tables took their indexes along
+            createIndexes(db);
+            createTimeIndexes(db);
+            createSaleFilterIndexes(db);
+        }
+    }
+
+    // Copies every row into a fresh table, filling in the millisecond column where it is still
+    // empty. CURRENT_TIMESTAMP text is UTC, which is what strftime('%s') assumes. Ids and the
+    // AUTOINCREMENT counter carry over, so no deleted id is ever handed out again.
+    private void rebuildWithoutTextTime(SQLiteDatabase db, String table, String textColumn,
+                                        String millisColumn, String columns) {
+        long sequence = 0;
+        Cursor cursor = db.rawQuery("SELECT seq FROM sqlite_sequence WHERE name = ?", new String[]{table});
+        if (cursor.moveToFirst()) {
+            sequence = cursor.getLong(0);
+        }
+        cursor.close();
+
+        String old = table + "_old";
+        db.execSQL("ALTER TABLE " + table + " RENAME TO " + old);
+        if (table.equals("sale")) {
+            createSaleTable(db);
+        } else {
+            createExportRecordTable(db);
+        }
+        db.execSQL("INSERT INTO " + table + " (" + columns + ", " + millisColumn + ") " +
+                "SELECT " + columns + ", IFNULL(" + millisColumn + ", " +
+                "IFNULL(CAST(strftime('%s', " + textColumn + ") AS INTEGER) * 1000, 0)) FROM " + old);
+        db.execSQL("DROP TABLE " + old);
+
+        // The copy only leaves a sqlite_sequence row when it copied rows, and that row can be
+        // below the old counter. sqlite_sequence has no key on name, so replace the row by hand.
+        cursor = db.rawQuery("SELECT MAX(seq) FROM sqlite_sequence WHERE name = ?", new String[]{table});
+        if (cursor.moveToFirst() && !cursor.isNull(0)) {
+            sequence = Math.max(sequence, cursor.getLong(0));
+        }
+        cursor.close();
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = ?", new Object[]{table});
+        db.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES (?, ?)", new Object[]{table, sequence});
+    }
+
+    private boolean hasColumn(SQLiteDatabase db, String table, String column) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                if (column.equals(cursor.getString(nameIndex))) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            cursor.close();
+        }
     }
 }
\ No newline at end of file
@@ -1,24 +1,246 @@
 package com.example.lunar_inventory;
 
+import android.app.Activity;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class DatabaseManager {
-    private DatabaseHelper dbHelper;
-    private SQLiteDatabase db;
+    private static final String TAG = "DatabaseManager";
+    private static DatabaseManager instance;
+
+    private static final int READER_THREADS = 2;
+
+    private final DatabaseHelper dbHelper;
+    private final Future<SQLiteDatabase> openTask;
+    private volatile SQLiteDatabase db;
+
+    // Screens hand their queries to these instead of running them on the main thread.
+    // The writer thread also opens the database, so it is always the first task to run.
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final ExecutorService readers = Executors.newFixedThreadPool(READER_THREADS);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Kept current by every committed change, so the home screen can browse without queries
+    private final CatalogCache catalog = new CatalogCache();
+    private final ChangeBus changes = new ChangeBus(catalog::onCommitted);
+
+    // Read-only connection used for snapshots, so exports never hold up sale recording
+    private SQLiteDatabase readerDb;
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+    private final ThreadLocal<SQLiteDatabase> snapshotDb = new ThreadLocal<>();
+
+    // Both set up by the open task, so they are ready whenever db() is
+    private SaleRecorder saleRecorder;
+    private SaleJournal saleJournal;
+
+    // The first call starts opening the database in the background; every screen then
+    // shares the same connection and its statement cache.
+    public static synchronized DatabaseManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new DatabaseManager(context.getApplicationContext());
+        }
+        return instance;
+    }
 
-    public DatabaseManager(Context context) {
+    private DatabaseManager(Context context) {
         dbHelper = new DatabaseHelper(context);
-        db = dbHelper.getWritableDatabase();
+
+        File journalFile = new File(context.getFilesDir(), "sale_journal");
+        openTask = writer.submit(() -> {
+            SQLiteDatabase database = dbHelper.getWritableDatabase();
+            database.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+
+            saleRecorder = new SaleRecorder(database, changes);
+            try {
+                SaleJournal journal = new SaleJournal(journalFile, saleRecorder);
+                journal.recover();
+                saleJournal = journal;
+            } catch (IOException e) {
+                // Sales are then written straight to the database
+                Log.e(TAG, "Sale journal unavailable", e);
+            }
+            return database;
+        });
+
+        // Have the catalog ready by the time the home screen asks for it
+        readers.submit(() -> {
+            try {
+                catalog.get(this);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to load catalog", e);
+            }
+        });
+    }
+
+    // Listeners hear about every committed change, on the main thread, until unsubscribed
+    public void subscribe(ChangeBus.Listener listener) {
+        changes.subscribe(listener);
+    }
+
+    public void unsubscribe(ChangeBus.Listener listener) {
+        changes.unsubscribe(listener);
+    }
+
+    private void publish(DataChange.Type type, long id) {
+        changes.publish(new DataChange(type, (int) id));
+    }
+
+    public interface Task<T> {
+        T run(DatabaseManager dbManager);
+    }
+
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    public interface ErrorCallback {
+        void onError(RuntimeException e);
+    }
+
+    // Runs the task on the reader pool, alongside other reads and the writer; a read that must
+    // see a write should be started from that write's callback. The callback runs on the main
+    // thread, and is dropped once the owner is finishing so a slow query never touches a dead screen.
+    public <T> Future<?> read(Activity owner, Task<T> task, Callback<T> callback) {
+        return submit(readers, owner, task, callback, null);
+    }
+
+    // Like read(), with onError called on the main thread instead of callback if the task throws
+    public <T> Future<?> read(Activity owner, Task<T> task, Callback<T> callback, ErrorCallback onError) {
+        return submit(readers, owner, task, callback, onError);
+    }
+
+    // Like read(), with every read in the task seeing the same committed state
+    public <T> Future<?> readSnapshot(Activity owner, Task<T> task, Callback<T> callback) {
+        return submit(readers, owner, dbManager -> {
+            dbManager.beginSnapshot();
+            try {
+                return task.run(dbManager);
+            } finally {
+                dbManager.endSnapshot();
+            }
+        }, callback, null);
     }
 
-    public void close() {
-        dbHelper.close();
+    // Writes run one at a time, in the order they were submitted
+    public <T> Future<?> write(Activity owner, Task<T> task, Callback<T> callback) {
+        return submit(writer, owner, task, callback, null);
+    }
+
+    public <T> Future<?> write(Activity owner, Task<T> task, Callback<T> callback, ErrorCallback onError) {
+        return submit(writer, owner, task, callback, onError);
+    }
+
+    private <T> Future<?> submit(ExecutorService executor, Activity owner, Task<T> task, Callback<T> callback,
+                                 ErrorCallback onError) {
+        return executor.submit(() -> {
+            T result;
+            try {
+                result = task.run(this);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Database task failed", e);
+                if (onError == null) return;
+                mainHandler.post(() -> {
+                    if (owner != null && (owner.isFinishing() || owner.isDestroyed())) return;
+                    onError.onError(e);
+                });
+                return;
+            }
+            if (callback == null) return;
+            mainHandler.post(() -> {
+                if (owner != null && (owner.isFinishing() || owner.isDestroyed())) return;
+                callback.onResult(result);
+            });
+        });
+    }
+
+    // Waits for the background open the first time; afterwards it is just a field read.
+    private SQLiteDatabase db() {
+        SQLiteDatabase database = db;
+        if (database == null) {
+            try {
+                database = openTask.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to open database", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while opening database", e);
+            }
+            db = database;
+        }
+        return database;
+    }
+
+    // Reads go to the snapshot connection while the calling thread holds a snapshot
+    private SQLiteDatabase readDb() {
+        SQLiteDatabase snapshot = snapshotDb.get();
+        return snapshot != null ? snapshot : db();
+    }
+
+    private synchronized SQLiteDatabase readerDb() {
+        if (readerDb == null) {
+            readerDb = SQLiteDatabase.openDatabase(db().getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        }
+        return readerDb;
+    }
+
+    // Until endSnapshot(), every read made on this thread sees the database as it was at the
+    // first read, while writes keep going through the main connection. Snapshots can nest.
+    public void beginSnapshot() {
+        flushPendingSales();
+        snapshotLock.lock();
+        try {
+            SQLiteDatabase reader = readerDb();
+            // A savepoint opens a deferred transaction; beginTransaction() would ask for a
+            // write lock, which a read-only connection cannot take
+            reader.execSQL("SAVEPOINT snapshot");
+            snapshotDb.set(reader);
+        } catch (RuntimeException e) {
+            snapshotLock.unlock();
+            throw e;
+        }
+    }
+
+    public void endSnapshot() {
+        try {
+            SQLiteDatabase reader = snapshotDb.get();
+            if (snapshotLock.getHoldCount() == 1) {
+                snapshotDb.remove();
+            }
+            if (reader != null) {
+                reader.execSQL("RELEASE snapshot");
+            }
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    // The shown catalog as of the last committed change. Only reads the database when
+    // something changed since the previous call, so run it as a read() task.
+    public CatalogSnapshot getCatalog() {
+        return catalog.get(this);
+    }
+
+    // Every shown category in tree order, for pickers; comes with the catalog
+    public CategoryTree getCategoryTree() {
+        return getCatalog().categoryTree;
     }
 
     // Category methods
@@ -28,20 +250,44 @@ public class DatabaseManager {
         values.put("picture", picture);
         if (defaultPrice != null) values.put("category_default_price", defaultPrice);
         if (parentCategory != null) values.put("parent_category", parentCategory);
-        return db.insert("category", null, values);
+
+        long id;
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            id = db.insert("category", null, values);
+            if (id != -1) {
+                // The new category sits below every ancestor of its parent, and below itself
+                db.execSQL("INSERT INTO category_closure (ancestor, descendant, depth) " +
+                                "SELECT ancestor, ?, depth + 1 FROM category_closure WHERE descendant = ? " +
+                                "UNION ALL SELECT ?, ?, 0",
+                        new Object[]{id, normalizeParent(parentCategory), id, id});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (id != -1) publish(DataChange.Type.CATEGORY_SUBTREE, id);
+        return id;
+    }
+
+    private static Integer normalizeParent(Integer parentCategory) {
+        return parentCategory == null || parentCategory == 0 ? null : parentCategory;
     }
 
     public List<Category> getCategories(Integer parentCategory, boolean includeHidden) {
         List<Category> categories = new ArrayList<>();
         String selection = includeHidden ? "" : "shown = 1";
+        String[] selectionArgs = null;
         if (parentCategory == null) {
             selection += (selection.isEmpty() ? "" : " AND ") + "(parent_category IS NULL OR parent_category = 0)";
         } else {
-            selection += (selection.isEmpty() ? "" : " AND ") + "parent_category = " + parentCategory;
+            selection += (selection.isEmpty() ? "" : " AND ") + "parent_category = ?";
+            selectionArgs = new String[]{String.valueOf(parentCategory)};
         }
 
-        Cursor cursor = db.query("category", null, selection.isEmpty() ? null : selection,
-                null, null, null, "name ASC");
+        Cursor cursor = readDb().query("category", null, selection.isEmpty() ? null : selection,
+                selectionArgs, null, null, "name ASC");
 
         while (cursor.moveToNext()) {
             categories.add(new Category(
@@ -59,8 +305,29 @@ public class DatabaseManager {
         return categories;
     }
 
+    // Every category in one query, sorted by name
+    public List<Category> getAllCategories(boolean includeHidden) {
+        List<Category> categories = new ArrayList<>();
+        Cursor cursor = readDb().query("category", null, includeHidden ? null : "shown = 1",
+                null, null, null, "name ASC");
+        while (cursor.moveToNext()) {
+            categories.add(new Category(
+                    cursor.getInt(cursor.getColumnIndexOrThrow("id_category")),
+                    cursor.getString(cursor.getColumnIndexOrThrow("name")),
+                    cursor.getString(cursor.getColumnIndexOrThrow("picture")),
+                    cursor.isNull(cursor.getColumnIndexOrThrow("category_default_price")) ? null :
+                            cursor.getDouble(cursor.getColumnIndexOrThrow("category_default_price")),
+                    cursor.getInt(cursor.getColumnIndexOrThrow("shown")) == 1,
+                    cursor.isNull(cursor.getColumnIndexOrThrow("parent_category")) ? null :
+                            cursor.getInt(cursor.getColumnIndexOrThrow("parent_category"))
+            ));
+        }
+        cursor.close();
+        return categories;
+    }
+
     public Category getCategory(int categoryId) {
-        Cursor cursor = db.query("category", null, "id_category = ?",
+        Cursor cursor = readDb().query("category", null, "id_category = ?",
                 new String[]{String.valueOf(categoryId)}, null, null, null);
 
         Category category = null;
@@ -95,68 +362,103 @@ public class DatabaseManager {
             values.putNull("parent_category");
         }
 
-        int rows = db.update("category", values, "id_category = ?", new String[]{String.valueOf(categoryId)});
-        return rows > 0;
-    }
-
-    public boolean deleteCategory(int categoryId) {
-        ContentValues values = new ContentValues();
-        values.put("shown", 0);
+        int rows;
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            Integer oldParent = null;
+            Cursor cursor = db.rawQuery("SELECT parent_category FROM category WHERE id_category = ?",
+                    new String[]{String.valueOf(categoryId)});
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                oldParent = cursor.getInt(0);
+            }
+            cursor.close();
 
-        hideItemsInCategory(categoryId);
-        hideSubCategories(categoryId);
+            rows = db.update("category", values, "id_category = ?", new String[]{String.valueOf(categoryId)});
 
-        int rows = db.update("category", values, "id_category = ?", new String[]{String.valueOf(categoryId)});
+            Integer newParent = normalizeParent(parentCategory);
+            oldParent = normalizeParent(oldParent);
+            if (rows > 0 && (oldParent == null ? newParent != null : !oldParent.equals(newParent))) {
+                moveCategorySubtree(db, categoryId, newParent);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (rows > 0) publish(DataChange.Type.CATEGORY_SUBTREE, categoryId);
         return rows > 0;
     }
 
-    private void hideItemsInCategory(int categoryId) {
+    private void moveCategorySubtree(SQLiteDatabase db, int categoryId, Integer newParent) {
+        // Detach the subtree from the ancestors it is leaving, keeping the links inside it
+        db.execSQL("DELETE FROM category_closure " +
+                        "WHERE descendant IN (SELECT descendant FROM category_closure WHERE ancestor = ?) " +
+                        "AND ancestor NOT IN (SELECT descendant FROM category_closure WHERE ancestor = ?)",
+                new Object[]{categoryId, categoryId});
+
+        // Hang it below every ancestor of the new parent
+        if (newParent != null) {
+            db.execSQL("INSERT INTO category_closure (ancestor, descendant, depth) " +
+                            "SELECT p.ancestor, s.descendant, p.depth + s.depth + 1 " +
+                            "FROM category_closure p, category_closure s " +
+                            "WHERE p.descendant = ? AND s.ancestor = ?",
+                    new Object[]{newParent, categoryId});
+        }
+    }
+
+    public boolean deleteCategory(int categoryId) {
         ContentValues values = new ContentValues();
         values.put("shown", 0);
-        db.update("item", values, "id_category = ?", new String[]{String.valueOf(categoryId)});
-    }
+        String subtree = "IN (SELECT descendant FROM category_closure WHERE ancestor = ?)";
+        String[] args = new String[]{String.valueOf(categoryId)};
 
-    private void hideSubCategories(int categoryId) {
-        List<Category> subCategories = getCategories(categoryId, true);
-        for (Category cat : subCategories) {
-            ContentValues values = new ContentValues();
-            values.put("shown", 0);
-            db.update("category", values, "id_category = ?", new String[]{String.valueOf(cat.id)});
-            hideItemsInCategory(cat.id);
-            hideSubCategories(cat.id);
+        // Hides the category, all of its subcategories and every item inside them
+        int rows;
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            db.update("item", values, "id_category " + subtree, args);
+            rows = db.update("category", values, "id_category " + subtree, args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
+        if (rows > 0) publish(DataChange.Type.CATEGORY_SUBTREE, categoryId);
+        return rows > 0;
     }
 
     public void updateItemsWithCategoryPrice(int categoryId) {
         Double categoryPrice = getCategoryPrice(categoryId);
         if (categoryPrice == null) return;
 
+        // Items of this category and of the shown subcategories that inherit its price,
+        // i.e. with no priced category between them and this one
         ContentValues values = new ContentValues();
         values.put("base_price", categoryPrice);
-        db.update("item", values, "id_category = ? AND uses_category_price = 1",
+        db().update("item", values, "uses_category_price = 1 AND id_category IN (" +
+                        "SELECT cc.descendant FROM category_closure cc " +
+                        "INNER JOIN category c ON c.id_category = cc.descendant " +
+                        "WHERE cc.ancestor = ? AND (cc.depth = 0 OR c.shown = 1) " +
+                        "AND NOT EXISTS (SELECT 1 FROM category_closure p " +
+                        "INNER JOIN category pc ON pc.id_category = p.ancestor " +
+                        "WHERE p.descendant = cc.descendant AND p.depth < cc.depth " +
+                        "AND pc.category_default_price IS NOT NULL))",
                 new String[]{String.valueOf(categoryId)});
-
-        List<Category> subCategories = getCategories(categoryId, false);
-        for (Category cat : subCategories) {
-            if (cat.defaultPrice == null) {
-                updateItemsWithCategoryPrice(cat.id);
-            }
-        }
+        publish(DataChange.Type.CATEGORY_SUBTREE, categoryId);
     }
 
     public int countItemsInCategory(int categoryId) {
-        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM item WHERE id_category = ? AND shown = 1",
+        Cursor cursor = readDb().rawQuery(
+                "SELECT COUNT(*) FROM category_closure cc " +
+                        "INNER JOIN category c ON c.id_category = cc.descendant " +
+                        "INNER JOIN item i ON i.id_category = cc.descendant " +
+                        "WHERE cc.ancestor = ? AND i.shown = 1 AND (cc.depth = 0 OR c.shown = 1)",
                 new String[]{String.valueOf(categoryId)});
         int count = 0;
         if (cursor.moveToFirst()) {
             count = cursor.getInt(0);
         }
         cursor.close();
-
-        List<Category> subCats = getCategories(categoryId, false);
-        for (Category cat : subCats) {
-            count += countItemsInCategory(cat.id);
-        }
         return count;
     }
 
@@ -176,20 +478,24 @@ public class DatabaseManager {
         values.put("id_category", categoryId);
         values.put("uses_category_price", usesCategoryPrice ? 1 : 0);
 
-        return db.insert("item", null, values);
+        long id = db().insert("item", null, values);
+        if (id != -1) publish(DataChange.Type.ITEM, id);
+        return id;
     }
 
     public List<Item> getItems(Integer categoryId, boolean includeHidden) {
         List<Item> items = new ArrayList<>();
         String selection = includeHidden ? "" : "shown = 1";
+        String[] selectionArgs = null;
         if (categoryId == null) {
             selection += (selection.isEmpty() ? "" : " AND ") + "(id_category IS NULL OR id_category = 0)";
         } else {
-            selection += (selection.isEmpty() ? "" : " AND ") + "id_category = " + categoryId;
+            selection += (selection.isEmpty() ? "" : " AND ") + "id_category = ?";
+            selectionArgs = new String[]{String.valueOf(categoryId)};
         }
 
-        Cursor cursor = db.query("item", null, selection.isEmpty() ? null : selection,
-                null, null, null, "name ASC");
+        Cursor cursor = readDb().query("item", null, selection.isEmpty() ? null : selection,
+                selectionArgs, null, null, "name ASC");
 
         while (cursor.moveToNext()) {
             items.add(new Item(
@@ -209,8 +515,31 @@ public class DatabaseManager {
         return items;
     }
 
+    // Every item in one query, sorted by name
+    public List<Item> getAllItems(boolean includeHidden) {
+        List<Item> items = new ArrayList<>();
+        Cursor cursor = readDb().query("item", null, includeHidden ? null : "shown = 1",
+                null, null, null, "name ASC");
+        while (cursor.moveToNext()) {
+            items.add(new Item(
+                    cursor.getInt(cursor.getColumnIndexOrThrow("id_item")),
+                    cursor.getString(cursor.getColumnIndexOrThrow("name")),
+                    cursor.getString(cursor.getColumnIndexOrThrow("picture")),
+                    cursor.getDouble(cursor.getColumnIndexOrThrow("base_price")),
+                    cursor.getInt(cursor.getColumnIndexOrThrow("current_stock")),
+                    cursor.getInt(cursor.getColumnIndexOrThrow("total_sold")),
+                    cursor.getInt(cursor.getColumnIndexOrThrow("uses_category_price")) == 1,
+                    cursor.getInt(cursor.getColumnIndexOrThrow("shown")) == 1,
+                    cursor.isNull(cursor.getColumnIndexOrThrow("id_category")) ? null :
+                            cursor.getInt(cursor.getColumnIndexOrThrow("id_category"))
+            ));
+        }
+        cursor.close();
+        return items;
+    }
+
     public Item getItem(int itemId) {
-        Cursor cursor = db.query("item", null, "id_item = ?",
+        Cursor cursor = readDb().query("item", null, "id_item = ?",
                 new String[]{String.valueOf(itemId)}, null, null, null);
 
         Item item = null;
@@ -252,25 +581,40 @@ public class DatabaseManager {
         }
         values.put("uses_category_price", usesCategoryPrice ? 1 : 0);
 
-        int rows = db.update("item", values, "id_item = ?", new String[]{String.valueOf(itemId)});
+        int rows = db().update("item", values, "id_item = ?", new String[]{String.valueOf(itemId)});
+        if (rows > 0) publish(DataChange.Type.ITEM, itemId);
         return rows > 0;
     }
 
     public boolean deleteItem(int itemId) {
         ContentValues values = new ContentValues();
         values.put("shown", 0);
-        int rows = db.update("item", values, "id_item = ?", new String[]{String.valueOf(itemId)});
+        int rows = db().update("item", values, "id_item = ?", new String[]{String.valueOf(itemId)});
+        if (rows > 0) publish(DataChange.Type.ITEM, itemId);
         return rows > 0;
     }
 
+    // Every picture path an item or category points at, hidden rows included
+    public List<String> getReferencedPictures() {
+        List<String> pictures = new ArrayList<>();
+        Cursor cursor = db().rawQuery(
+                "SELECT picture FROM item WHERE picture IS NOT NULL AND picture != '' " +
+                        "UNION SELECT picture FROM category WHERE picture IS NOT NULL AND picture != ''",
+                null);
+        while (cursor.moveToNext()) {
+            pictures.add(cursor.getString(0));
+        }
+        cursor.close();
+        return pictures;
+    }
+
     public Double getCategoryPrice(int categoryId) {
-        Cursor cursor = db.rawQuery(
-                "WITH RECURSIVE cat_path AS (" +
-                        "  SELECT id_category, category_default_price, parent_category FROM category WHERE id_category = ?" +
-                        "  UNION ALL" +
-                        "  SELECT c.id_category, c.category_default_price, c.parent_category " +
-                        "  FROM category c INNER JOIN cat_path cp ON c.id_category = cp.parent_category" +
-                        ") SELECT category_default_price FROM cat_path WHERE category_default_price IS NOT NULL LIMIT 1",
+        // Nearest category up the tree (itself included) that sets a price
+        Cursor cursor = db().rawQuery(
+                "SELECT c.category_default_price FROM category_closure cc " +
+                        "INNER JOIN category c ON c.id_category = cc.ancestor " +
+                        "WHERE cc.descendant = ? AND c.category_default_price IS NOT NULL " +
+                        "ORDER BY cc.depth LIMIT 1",
                 new String[]{String.valueOf(categoryId)});
 
         Double price = null;
@@ -282,44 +626,118 @@ public class DatabaseManager {
     }
 
     // Sale methods
-    public long addSale(int itemId, double soldPrice) {
-        Cursor cursor = db.rawQuery("SELECT id_export FROM sale_batch ORDER BY id_export DESC LIMIT 1", null);
-        int batchId = 1;
-        if (cursor.moveToFirst()) {
-            batchId = cursor.getInt(0);
+    private SaleRecorder saleRecorder() {
+        db();
+        return saleRecorder;
+    }
+
+    // Returns once the sale is in the journal; the sale table catches up in the background
+    public void addSale(int itemId, double soldPrice) {
+        db();
+        if (saleJournal != null) {
+            saleJournal.append(itemId, soldPrice);
+        } else {
+            saleRecorder.record(itemId, soldPrice);
         }
-        cursor.close();
+    }
 
-        ContentValues values = new ContentValues();
-        values.put("sold_price", soldPrice);
-        values.put("id_export", batchId);
-        values.put("id_item", itemId);
+    // Anything that reads or rewrites sales must see the journaled ones first
+    private void flushPendingSales() {
+        db();
+        if (saleJournal != null) {
+            saleJournal.awaitFlush();
+        }
+    }
 
-        long result = db.insert("sale", null, values);
+    // Newest first, narrowed by filter (null for everything). Pass the last sale of the previous
+    // page to get the next one, or null for the first page; the (time, id) key keeps pages
+    // stable while new sales arrive.
+    public List<Sale> getSalesPage(SaleFilter filter, Sale after, int limit) {
+        List<String> args = new ArrayList<>();
+        StringBuilder where = new StringBuilder("WHERE 1");
+        appendFilter(where, filter, args);
+        if (after != null) {
+            String time = String.valueOf(after.saleTime);
+            where.append(" AND s.sale_time_ms <= ? AND (s.sale_time_ms < ? OR s.id_sale < ?)");
+            args.add(time);
+            args.add(time);
+            args.add(String.valueOf(after.id));
+        }
+        return querySales(where, args, "DESC", limit);
+    }
+
+    // Sales matching filter recorded after newest, newest first, at most limit of them
+    public List<Sale> getSalesNewerThan(SaleFilter filter, Sale newest, int limit) {
+        List<String> args = new ArrayList<>();
+        StringBuilder where = new StringBuilder("WHERE 1");
+        appendFilter(where, filter, args);
+        String time = String.valueOf(newest.saleTime);
+        where.append(" AND s.sale_time_ms >= ? AND (s.sale_time_ms > ? OR s.id_sale > ?)");
+        args.add(time);
+        args.add(time);
+        args.add(String.valueOf(newest.id));
+
+        List<Sale> sales = querySales(where, args, "ASC", limit);
+        Collections.reverse(sales);
+        return sales;
+    }
 
-        if (result != -1) {
-            db.execSQL("UPDATE item SET total_sold = total_sold + 1, " +
-                    "current_stock = CASE WHEN current_stock > 0 THEN current_stock - 1 ELSE current_stock END " +
-                    "WHERE id_item = ?", new Object[]{itemId});
+    // The time, batch and item conditions each have an index that also yields (time, id)
+    // order: idx_sale_time_ms, idx_sale_export_time_ms and idx_sale_item_time_ms, so a page
+    // stops after limit rows. The category subtree does not: EXPLAIN QUERY PLAN shows the
+    // item list from category_closure probed through idx_sale_item_time_ms once per item, and
+    // the matches sorted in a temp b-tree before the limit applies. That costs one pass over
+    // the category's sales per page, which stays small next to the whole table.
+    private void appendFilter(StringBuilder where, SaleFilter filter, List<String> args) {
+        if (filter == null) return;
+
+        if (filter.fromMs != null) {
+            where.append(" AND s.sale_time_ms >= ?");
+            args.add(String.valueOf(filter.fromMs));
         }
+        if (filter.toMs != null) {
+            where.append(" AND s.sale_time_ms < ?");
+            args.add(String.valueOf(filter.toMs));
+        }
+        if (filter.batchId != null) {
+            where.append(" AND s.id_export = ?");
+            args.add(String.valueOf(filter.batchId));
+        }
+        if (filter.itemId != null) {
+            where.append(" AND s.id_item = ?");
+            args.add(String.valueOf(filter.itemId));
+        }
+        if (filter.categoryId != null) {
+            where.append(" AND s.id_item IN (SELECT fi.id_item FROM category_closure cc " +
+                    "INNER JOIN item fi ON fi.id_category = cc.descendant WHERE cc.ancestor = ?)");
+            args.add(String.valueOf(filter.categoryId));
+        }
+    }
 
-        return result;
+    public Sale getSale(int saleId) {
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(saleId));
+        List<Sale> sales = querySales(new StringBuilder("WHERE s.id_sale = ?"), args, "DESC", 1);
+        return sales.isEmpty() ? null : sales.get(0);
     }
 
-    public List<Sale> getAllSales() {
+    // The sale indexes all end with the rowid, so walking one gives (time, id) order unsorted
+    private List<Sale> querySales(StringBuilder where, List<String> args, String direction, int limit) {
         List<Sale> sales = new ArrayList<>();
-        Cursor cursor = db.rawQuery(
-                "SELECT s.id_sale, s.sold_price, s.sale_time, s.id_export, s.id_item, i.name " +
+        Cursor cursor = readDb().rawQuery(
+                "SELECT s.id_sale, s.sold_price, s.sale_time_ms, s.id_export, s.id_item, i.name " +
                         "FROM sale s " +
                         "INNER JOIN item i ON s.id_item = i.id_item " +
-                        "ORDER BY s.sale_time DESC",
-                null);
+                        where + " " +
+                        "ORDER BY s.sale_time_ms " + direction + ", s.id_sale " + direction + " " +
+                        "LIMIT " + limit,
+                args.toArray(new String[0]));
 
         while (cursor.moveToNext()) {
             sales.add(new Sale(
                     cursor.getInt(0),
                     cursor.getDouble(1),
-                    cursor.getString(2),
+                    cursor.getLong(2),
                     cursor.getInt(3),
                     cursor.getInt(4),
                     cursor.getString(5)
@@ -330,35 +748,24 @@ public class DatabaseManager {
     }
 
     public boolean updateSalePrice(int saleId, double newPrice) {
-        ContentValues values = new ContentValues();
-        values.put("sold_price", newPrice);
-        int rows = db.update("sale", values, "id_sale = ?", new String[]{String.valueOf(saleId)});
-        return rows > 0;
+        flushPendingSales();
+        return saleRecorder().changeSalePrice(saleId, newPrice);
     }
 
-    public boolean deleteSale(int saleId, int itemId) {
-        int rows = db.delete("sale", "id_sale = ?", new String[]{String.valueOf(saleId)});
-
-        if (rows > 0) {
-            db.execSQL("UPDATE item SET total_sold = total_sold - 1, " +
-                    "current_stock = CASE WHEN current_stock >= 0 THEN current_stock + 1 ELSE current_stock END " +
-                    "WHERE id_item = ?", new Object[]{itemId});
-        }
-
-        return rows > 0;
+    public boolean deleteSale(int saleId) {
+        flushPendingSales();
+        return saleRecorder().removeSale(saleId);
     }
 
     public boolean resetAllSales() {
         try {
-            // Delete all sales
-            int salesDeleted = db.delete("sale", null, null);
-
-            // Reset all item counters
-            db.execSQL("UPDATE item SET total_sold = 0, current_stock = CASE WHEN current_stock = -1 THEN -1 ELSE current_stock + total_sold END");
+            flushPendingSales();
+            boolean salesDeleted = saleRecorder().removeAllSales();
 
             this.cleanHidden();
 
-            return salesDeleted > 0;
+            publish(DataChange.Type.SALES_RESET, 0);
+            return salesDeleted;
         } catch (Exception e) {
             return false;
         }
@@ -366,11 +773,22 @@ public class DatabaseManager {
 
     public boolean cleanHidden(){
         try {
-            //Remove hidden items with no sales left and which are hidden
-            db.execSQL("DELETE from item where total_sold = 0 and shown = 0");
-
-            //Remove hidden categories
-            db.execSQL("DELETE from category WHERE shown = 0");
+            // One transaction, so category_closure never outlives the categories it describes
+            SQLiteDatabase db = db();
+            db.beginTransaction();
+            try {
+                //Remove hidden items with no sales left and which are hidden
+                db.execSQL("DELETE from item where total_sold = 0 and shown = 0");
+
+                //Remove hidden categories
+                db.execSQL("DELETE from category WHERE shown = 0");
+                db.execSQL("DELETE FROM category_closure " +
+                        "WHERE ancestor NOT IN (SELECT id_category FROM category) " +
+                        "OR descendant NOT IN (SELECT id_category FROM category)");
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
 
             return true;
         } catch (Exception e) {
@@ -379,13 +797,14 @@ public class DatabaseManager {
     }
 
     public boolean deleteExportRecord(int recordId) {
-        int rows = db.delete("export_record", "id_record = ?", new String[]{String.valueOf(recordId)});
+        int rows = db().delete("export_record", "id_record = ?", new String[]{String.valueOf(recordId)});
+        if (rows > 0) publish(DataChange.Type.EXPORTS, recordId);
         return rows > 0;
     }
 
     public int getCurrentBatchSaleCount() {
-        Cursor cursor = db.rawQuery(
-                "SELECT COUNT(*) FROM sale WHERE id_export = " +
+        Cursor cursor = readDb().rawQuery(
+                "SELECT IFNULL(SUM(quantity), 0) FROM sale_rollup WHERE id_export = " +
                         "(SELECT id_export FROM sale_batch ORDER BY id_export DESC LIMIT 1)",
                 null);
         int count = 0;
@@ -397,7 +816,7 @@ public class DatabaseManager {
     }
 
     public int getTotalSaleCount() {
-        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM sale", null);
+        Cursor cursor = readDb().rawQuery("SELECT IFNULL(SUM(quantity), 0) FROM sale_rollup", null);
         int count = 0;
         if (cursor.moveToFirst()) {
             count = cursor.getInt(0);
@@ -406,39 +825,37 @@ public class DatabaseManager {
         return count;
     }
 
+    // Once this returns, every sale is booked to the new batch and the previous one is final
     public void createNewBatch() {
-        Cursor cursor = db.rawQuery("SELECT MAX(id_export) FROM sale_batch", null);
-        int nextBatchId = 1;
-        if (cursor.moveToFirst()) {
-            nextBatchId = cursor.getInt(0) + 1;
-        }
-        cursor.close();
-
-        ContentValues values = new ContentValues();
-        values.put("name", "Batch " + nextBatchId);
-        db.insert("sale_batch", null, values);
+        flushPendingSales();
+        long batchId = saleRecorder().startNewBatch();
+        if (batchId != -1) publish(DataChange.Type.BATCH_ROLLED, batchId);
     }
 
-    public List<SaleGroup> getSalesGroupedForExport(boolean currentBatchOnly) {
+    // One batch, or every batch when batchId is null
+    public List<SaleGroup> getSalesGroupedForExport(Integer batchId) {
         List<SaleGroup> groups = new ArrayList<>();
         String query;
 
-        if (currentBatchOnly) {
-            query = "SELECT s.id_item, i.name, i.id_category, s.sold_price, COUNT(*) as quantity " +
-                    "FROM sale s " +
-                    "INNER JOIN item i ON s.id_item = i.id_item " +
-                    "WHERE s.id_export = (SELECT id_export FROM sale_batch ORDER BY id_export DESC LIMIT 1) " +
-                    "GROUP BY s.id_item, s.sold_price " +
-                    "ORDER BY i.name, s.sold_price";
+        // Reads the rollup, so the cost follows the number of item/price pairs, not of sales.
+        // The item's base price comes along, so exporters never look items up one by one.
+        String[] args = null;
+        if (batchId != null) {
+            query = "SELECT r.id_item, i.name, i.id_category, r.sold_price, i.base_price, r.quantity " +
+                    "FROM sale_rollup r " +
+                    "INNER JOIN item i ON r.id_item = i.id_item " +
+                    "WHERE r.id_export = ? " +
+                    "ORDER BY i.name, r.sold_price";
+            args = new String[]{String.valueOf(batchId)};
         } else {
-            query = "SELECT s.id_item, i.name, i.id_category, s.sold_price, COUNT(*) as quantity " +
-                    "FROM sale s " +
-                    "INNER JOIN item i ON s.id_item = i.id_item " +
-                    "GROUP BY s.id_item, s.sold_price " +
-                    "ORDER BY i.name, s.sold_price";
+            query = "SELECT r.id_item, i.name, i.id_category, r.sold_price, i.base_price, SUM(r.quantity) as quantity " +
+                    "FROM sale_rollup r " +
+                    "INNER JOIN item i ON r.id_item = i.id_item " +
+                    "GROUP BY r.id_item, r.sold_price " +
+                    "ORDER BY i.name, r.sold_price";
         }
 
-        Cursor cursor = db.rawQuery(query, null);
+        Cursor cursor = readDb().rawQuery(query, args);
 
         while (cursor.moveToNext()) {
             groups.add(new SaleGroup(
@@ -446,16 +863,18 @@ public class DatabaseManager {
                     cursor.getString(1),
                     cursor.isNull(2) ? null : cursor.getInt(2),
                     cursor.getDouble(3),
-                    cursor.getInt(4)
+                    cursor.getDouble(4),
+                    cursor.getInt(5)
             ));
         }
         cursor.close();
         return groups;
     }
 
-    public String getCurrentBatchName() {
-        Cursor cursor = db.rawQuery("SELECT name FROM sale_batch ORDER BY id_export DESC LIMIT 1", null);
-        String name = "Batch 1";
+    public String getBatchName(int batchId) {
+        Cursor cursor = readDb().rawQuery("SELECT name FROM sale_batch WHERE id_export = ?",
+                new String[]{String.valueOf(batchId)});
+        String name = "Batch " + batchId;
         if (cursor.moveToFirst()) {
             name = cursor.getString(0);
         }
@@ -463,8 +882,67 @@ public class DatabaseManager {
         return name;
     }
 
+    // Newest first
+    public List<SaleBatch> getBatches() {
+        List<SaleBatch> batches = new ArrayList<>();
+        Cursor cursor = readDb().rawQuery("SELECT id_export, name FROM sale_batch ORDER BY id_export DESC", null);
+        while (cursor.moveToNext()) {
+            batches.add(new SaleBatch(cursor.getInt(0), cursor.getString(1)));
+        }
+        cursor.close();
+        return batches;
+    }
+
+    // Every batch with its sale count and revenue under filter, newest first. Without a date
+    // range these come straight from sale_rollup; with one, from an index range per batch.
+    public List<SaleBatch> getBatchSummaries(SaleFilter filter) {
+        List<String> args = new ArrayList<>();
+        String join;
+        String totals;
+        if (filter.fromMs == null && filter.toMs == null) {
+            join = "LEFT JOIN sale_rollup r ON r.id_export = b.id_export";
+            if (filter.itemId != null) {
+                join += " AND r.id_item = ?";
+                args.add(String.valueOf(filter.itemId));
+            }
+            if (filter.categoryId != null) {
+                join += " AND r.id_item IN (SELECT fi.id_item FROM category_closure cc " +
+                        "INNER JOIN item fi ON fi.id_category = cc.descendant WHERE cc.ancestor = ?)";
+                args.add(String.valueOf(filter.categoryId));
+            }
+            totals = "IFNULL(SUM(r.quantity), 0), IFNULL(SUM(r.revenue), 0)";
+        } else {
+            SaleFilter saleFilter = filter.copy();
+            saleFilter.batchId = null;
+            StringBuilder on = new StringBuilder("LEFT JOIN sale s ON s.id_export = b.id_export");
+            appendFilter(on, saleFilter, args);
+            join = on.toString();
+            totals = "COUNT(s.id_sale), IFNULL(SUM(IFNULL(s.sold_price, 0)), 0)";
+        }
+
+        String where = "";
+        if (filter.batchId != null) {
+            where = "WHERE b.id_export = ? ";
+            args.add(String.valueOf(filter.batchId));
+        }
+
+        List<SaleBatch> batches = new ArrayList<>();
+        Cursor cursor = readDb().rawQuery(
+                "SELECT b.id_export, b.name, " + totals + " FROM sale_batch b " + join + " " +
+                        where + "GROUP BY b.id_export ORDER BY b.id_export DESC",
+                args.toArray(new String[0]));
+        while (cursor.moveToNext()) {
+            SaleBatch batch = new SaleBatch(cursor.getInt(0), cursor.getString(1));
+            batch.saleCount = cursor.getInt(2);
+            batch.revenue = cursor.getDouble(3);
+            batches.add(batch);
+        }
+        cursor.close();
+        return batches;
+    }
+
     public int getCurrentBatchId() {
-        Cursor cursor = db.rawQuery("SELECT id_export FROM sale_batch ORDER BY id_export DESC LIMIT 1", null);
+        Cursor cursor = readDb().rawQuery("SELECT id_export FROM sale_batch ORDER BY id_export DESC LIMIT 1", null);
         int id = 1;
         if (cursor.moveToFirst()) {
             id = cursor.getInt(0);
@@ -473,74 +951,88 @@ public class DatabaseManager {
         return id;
     }
 
-    public String getExportDateRange(boolean currentBatchOnly) {
-        String query;
-        if (currentBatchOnly) {
-            query = "SELECT MIN(sale_time), MAX(sale_time) FROM sale " +
-                    "WHERE id_export = (SELECT id_export FROM sale_batch ORDER BY id_export DESC LIMIT 1)";
+    // One batch, or every batch when batchId is null
+    public String getExportDateRange(Integer batchId) {
+        Cursor cursor;
+        if (batchId != null) {
+            cursor = readDb().rawQuery("SELECT MIN(sale_time_ms), MAX(sale_time_ms) FROM sale WHERE id_export = ?",
+                    new String[]{String.valueOf(batchId)});
         } else {
-            query = "SELECT MIN(sale_time), MAX(sale_time) FROM sale";
+            cursor = readDb().rawQuery("SELECT MIN(sale_time_ms), MAX(sale_time_ms) FROM sale", null);
         }
 
-        Cursor cursor = db.rawQuery(query, null);
         String dateRange = "";
         if (cursor.moveToFirst() && !cursor.isNull(0)) {
-            String startDate = cursor.getString(0);
-            String endDate = cursor.getString(1);
-            dateRange = formatDateRange(startDate, endDate);
+            dateRange = formatDateRange(cursor.getLong(0), cursor.getLong(1));
         }
         cursor.close();
         return dateRange;
     }
 
-    private String formatDateRange(String start, String end) {
-        try {
-            // Assuming format: YYYY-MM-DD HH:MM:SS
-            String startDate = start.substring(0, 10);
-            String endDate = end.substring(0, 10);
-
-            if (startDate.equals(endDate)) {
-                return startDate;
-            } else {
-                return startDate + " to " + endDate;
-            }
-        } catch (Exception e) {
-            return start + " to " + end;
+    private String formatDateRange(long start, long end) {
+        SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
+        String startDate = dayFormat.format(new Date(start));
+        String endDate = dayFormat.format(new Date(end));
+
+        if (startDate.equals(endDate)) {
+            return startDate;
+        } else {
+            return startDate + " to " + endDate;
         }
     }
 
     public void updateBatchExportTime(int batchId) {
-        db.execSQL("UPDATE sale_batch SET export_time = datetime('now') WHERE id_export = ?",
+        db().execSQL("UPDATE sale_batch SET export_time = datetime('now') WHERE id_export = ?",
                 new Object[]{batchId});
     }
 
-    public long saveExportRecord(String filename, String filepath, Integer batchId, String format, boolean isFullExport, String exportName) {
+    public long saveExportRecord(String filename, String filepath, Integer batchId, String format, boolean isFullExport,
+                                 String exportName, String backupHash, String snapshotHash) {
         ContentValues values = new ContentValues();
         values.put("filename", filename);
         values.put("filepath", filepath);
+        values.put("export_time_ms", System.currentTimeMillis());
         if (batchId != null) values.put("id_batch", batchId);
         values.put("format", format);
         values.put("is_full_export", isFullExport ? 1 : 0);
         values.put("export_name", exportName);
-        return db.insert("export_record", null, values);
+        values.put("backup_hash", backupHash);
+        values.put("snapshot_hash", snapshotHash);
+        long id = db().insert("export_record", null, values);
+        if (id != -1) publish(DataChange.Type.EXPORTS, id);
+        return id;
+    }
+
+    // Identical exports share one stored backup and snapshot, which go once the last of them
+    // is deleted
+    public boolean isBackupReferenced(String hash) {
+        Cursor cursor = readDb().rawQuery("SELECT 1 FROM export_record WHERE backup_hash = ? OR snapshot_hash = ? LIMIT 1",
+                new String[]{hash, hash});
+        boolean referenced = cursor.moveToFirst();
+        cursor.close();
+        return referenced;
     }
 
     public List<ExportRecord> getAllExportRecords() {
         List<ExportRecord> records = new ArrayList<>();
-        Cursor cursor = db.query("export_record", null, null, null, null, null, "export_time DESC");
+        Cursor cursor = readDb().query("export_record", null, null, null, null, null, "export_time_ms DESC");
 
         while (cursor.moveToNext()) {
             records.add(new ExportRecord(
                     cursor.getInt(cursor.getColumnIndexOrThrow("id_record")),
                     cursor.getString(cursor.getColumnIndexOrThrow("filename")),
                     cursor.getString(cursor.getColumnIndexOrThrow("filepath")),
-                    cursor.getString(cursor.getColumnIndexOrThrow("export_time")),
+                    cursor.getLong(cursor.getColumnIndexOrThrow("export_time_ms")),
                     cursor.isNull(cursor.getColumnIndexOrThrow("id_batch")) ? -1 :
                             cursor.getInt(cursor.getColumnIndexOrThrow("id_batch")),
                     cursor.getString(cursor.getColumnIndexOrThrow("format")),
                     cursor.getInt(cursor.getColumnIndexOrThrow("is_full_export")) == 1,
                     cursor.isNull(cursor.getColumnIndexOrThrow("export_name")) ? null :
-                            cursor.getString(cursor.getColumnIndexOrThrow("export_name"))
+                            cursor.getString(cursor.getColumnIndexOrThrow("export_name")),
+                    cursor.isNull(cursor.getColumnIndexOrThrow("backup_hash")) ? null :
+                            cursor.getString(cursor.getColumnIndexOrThrow("backup_hash")),
+                    cursor.isNull(cursor.getColumnIndexOrThrow("snapshot_hash")) ? null :
+                            cursor.getString(cursor.getColumnIndexOrThrow("snapshot_hash"))
             ));
         }
         cursor.close();
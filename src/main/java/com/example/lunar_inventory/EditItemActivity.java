@@ -1,12 +1,9 @@
 package com.example.lunar_inventory;
 
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.EditText;
@@ -16,12 +13,6 @@ import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-
 public class EditItemActivity extends AppCompatActivity {
     private static final int PICK_IMAGE = 1;
 
@@ -35,13 +26,14 @@ public class EditItemActivity extends AppCompatActivity {
     private String selectedImagePath = null;
     private int itemId;
     private Item currentItem;
+    private CategoryPicker categoryPicker;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_edit_item);
 
-        dbManager = new DatabaseManager(this);
+        dbManager = DatabaseManager.getInstance(this);
 
         itemId = getIntent().getIntExtra("item_id", -1);
         if (itemId == -1) {
@@ -50,13 +42,6 @@ public class EditItemActivity extends AppCompatActivity {
             return;
         }
 
-        currentItem = dbManager.getItem(itemId);
-        if (currentItem == null) {
-            Toast.makeText(this, "Item not found", Toast.LENGTH_SHORT).show();
-            finish();
-            return;
-        }
-
         nameInput = findViewById(R.id.edit_name_input);
         priceInput = findViewById(R.id.edit_price_input);
         stockInput = findViewById(R.id.edit_stock_input);
@@ -65,28 +50,39 @@ public class EditItemActivity extends AppCompatActivity {
         imagePreview = findViewById(R.id.edit_image_preview);
         selectImageButton = findViewById(R.id.edit_select_image_button);
         saveButton = findViewById(R.id.edit_save_button);
-
-        loadItemData();
-        loadCategories();
+        categoryPicker = new CategoryPicker(this, categorySpinner, findViewById(R.id.edit_category_filter_input));
+
+        // Nothing can be saved until the item and the category list are on screen
+        saveButton.setEnabled(false);
+        dbManager.read(this, db -> {
+            Item item = db.getItem(itemId);
+            return item == null ? null : new LoadedItem(item, db.getCategoryTree());
+        }, loaded -> {
+            if (loaded == null) {
+                Toast.makeText(this, "Item not found", Toast.LENGTH_SHORT).show();
+                finish();
+                return;
+            }
+            currentItem = loaded.item;
+            loadItemData();
+            categoryPicker.setChoices(loaded.categories.getNodes(), currentItem.categoryId);
+            saveButton.setEnabled(true);
+        });
 
         useCategoryPriceCheckBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
             priceInput.setEnabled(!isChecked);
-            if (isChecked && categorySpinner.getSelectedItemPosition() > 0) {
-                List<Category> categories = getAllCategoriesRecursive();
-                int categoryId = categories.get(categorySpinner.getSelectedItemPosition() - 1).id;
-                Double catPrice = dbManager.getCategoryPrice(categoryId);
-                priceInput.setText(String.valueOf(catPrice));
+            Integer categoryId = categoryPicker.getSelectedCategoryId();
+            if (isChecked && categoryId != null) {
+                showCategoryPrice(categoryId);
             }
         });
 
         categorySpinner.setOnItemSelectedListener(new android.widget.AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(android.widget.AdapterView<?> parent, android.view.View view, int position, long id) {
-                if (useCategoryPriceCheckBox.isChecked() && position > 0) {
-                    List<Category> categories = getAllCategoriesRecursive();
-                    int categoryId = categories.get(position - 1).id;
-                    Double catPrice = dbManager.getCategoryPrice(categoryId);
-                    priceInput.setText(String.valueOf(catPrice));
+                Integer categoryId = categoryPicker.getSelectedCategoryId();
+                if (useCategoryPriceCheckBox.isChecked() && categoryId != null) {
+                    showCategoryPrice(categoryId);
                 }
             }
 
@@ -114,44 +110,14 @@ public class EditItemActivity extends AppCompatActivity {
         priceInput.setEnabled(!currentItem.usesCategoryPrice);
 
         if (currentItem.picture != null && !currentItem.picture.isEmpty()) {
-            Bitmap bitmap = BitmapFactory.decodeFile(currentItem.picture);
-            imagePreview.setImageBitmap(bitmap);
+            ThumbnailLoader.getInstance(this).show(currentItem.picture, imagePreview);
             selectedImagePath = currentItem.picture;
         }
     }
 
-    private void loadCategories() {
-        List<Category> categories = getAllCategoriesRecursive();
-        List<String> categoryNames = new ArrayList<>();
-        categoryNames.add("None");
-
-        int selectedPosition = 0;
-        for (int i = 0; i < categories.size(); i++) {
-            categoryNames.add(categories.get(i).name);
-            if (currentItem.categoryId != null && categories.get(i).id == currentItem.categoryId) {
-                selectedPosition = i + 1;
-            }
-        }
-
-        ArrayAdapter<String> adapter = new ArrayAdapter<>(this,
-                android.R.layout.simple_spinner_item, categoryNames);
-        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
-        categorySpinner.setAdapter(adapter);
-        categorySpinner.setSelection(selectedPosition);
-    }
-
-    private List<Category> getAllCategoriesRecursive() {
-        List<Category> allCategories = new ArrayList<>();
-        addCategoriesRecursive(null, allCategories, 0);
-        return allCategories;
-    }
-
-    private void addCategoriesRecursive(Integer parentId, List<Category> result, int depth) {
-        List<Category> cats = dbManager.getCategories(parentId, false);
-        for (Category cat : cats) {
-            result.add(cat);
-            addCategoriesRecursive(cat.id, result, depth + 1);
-        }
+    private void showCategoryPrice(int categoryId) {
+        dbManager.read(this, db -> db.getCategoryPrice(categoryId),
+                catPrice -> priceInput.setText(String.valueOf(catPrice)));
     }
 
     @Override
@@ -160,25 +126,20 @@ public class EditItemActivity extends AppCompatActivity {
 
         if (requestCode == PICK_IMAGE && resultCode == RESULT_OK && data != null) {
             Uri imageUri = data.getData();
-            try {
-                Bitmap bitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), imageUri);
-                imagePreview.setImageBitmap(bitmap);
-                selectedImagePath = saveImageToInternalStorage(bitmap);
-            } catch (IOException e) {
-                Toast.makeText(this, "Failed to load image", Toast.LENGTH_SHORT).show();
-            }
-        }
-    }
-
-    private String saveImageToInternalStorage(Bitmap bitmap) {
-        File directory = getFilesDir();
-        File file = new File(directory, "item_" + System.currentTimeMillis() + ".jpg");
-
-        try (FileOutputStream fos = new FileOutputStream(file)) {
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, fos);
-            return file.getAbsolutePath();
-        } catch (IOException e) {
-            return null;
+            ThumbnailLoader.getInstance(this).clear(imagePreview);
+            saveButton.setEnabled(false);
+            ImageIngest.getInstance(this).ingest(this, imageUri, path -> {
+                saveButton.setEnabled(currentItem != null);
+                if (path == null) {
+                    Toast.makeText(this, "Failed to load image", Toast.LENGTH_SHORT).show();
+                    if (selectedImagePath != null) {
+                        ThumbnailLoader.getInstance(this).show(selectedImagePath, imagePreview);
+                    }
+                    return;
+                }
+                selectedImagePath = path;
+                ThumbnailLoader.getInstance(this).show(path, imagePreview);
+            });
         }
     }
 
@@ -220,25 +181,31 @@ public class EditItemActivity extends AppCompatActivity {
             stock = -1;
         }
 
-        Integer categoryId = null;
-        if (categorySpinner.getSelectedItemPosition() > 0) {
-            List<Category> categories = getAllCategoriesRecursive();
-            categoryId = categories.get(categorySpinner.getSelectedItemPosition() - 1).id;
-        }
+        Double itemPrice = price;
+        Integer itemStock = stock;
+        Integer itemCategoryId = categoryPicker.getSelectedCategoryId();
+        String imagePath = selectedImagePath;
+        saveButton.setEnabled(false);
+        dbManager.write(this,
+                db -> db.updateItem(itemId, name, imagePath, itemPrice, itemStock, itemCategoryId, useCategoryPrice),
+                result -> {
+                    if (result) {
+                        Toast.makeText(this, "Item updated successfully", Toast.LENGTH_SHORT).show();
+                        finish();
+                    } else {
+                        saveButton.setEnabled(true);
+                        Toast.makeText(this, "Failed to update item", Toast.LENGTH_SHORT).show();
+                    }
+                });
+    }
 
-        boolean result = dbManager.updateItem(itemId, name, selectedImagePath, price, stock, categoryId, useCategoryPrice);
+    private static class LoadedItem {
+        final Item item;
+        final CategoryTree categories;
 
-        if (result) {
-            Toast.makeText(this, "Item updated successfully", Toast.LENGTH_SHORT).show();
-            finish();
-        } else {
-            Toast.makeText(this, "Failed to update item", Toast.LENGTH_SHORT).show();
+        LoadedItem(Item item, CategoryTree categories) {
+            this.item = item;
+            this.categories = categories;
         }
     }
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        dbManager.close();
-    }
-}
\ No newline at end of file
+}
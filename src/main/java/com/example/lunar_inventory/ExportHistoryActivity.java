@@ -20,7 +20,15 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.navigation.NavigationView;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 public class ExportHistoryActivity extends AppCompatActivity implements NavigationView.OnNavigationItemSelectedListener {
@@ -30,13 +38,16 @@ public class ExportHistoryActivity extends AppCompatActivity implements Navigati
     private RecyclerView recyclerView;
     private ExportHistoryAdapter adapter;
     private DatabaseManager dbManager;
+    private BackupStore backupStore;
+    private final ChangeBus.Listener changeListener = this::onDataChanged;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_export_history);
 
-        dbManager = new DatabaseManager(this);
+        dbManager = DatabaseManager.getInstance(this);
+        backupStore = new BackupStore(this);
 
         Toolbar toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -62,11 +73,24 @@ public class ExportHistoryActivity extends AppCompatActivity implements Navigati
         recyclerView = findViewById(R.id.export_history_recycler);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
 
+        dbManager.subscribe(changeListener);
         loadExports();
     }
 
+    private void onDataChanged(List<DataChange> changes) {
+        for (DataChange change : changes) {
+            if (change.type == DataChange.Type.EXPORTS) {
+                loadExports();
+                return;
+            }
+        }
+    }
+
     private void loadExports() {
-        List<ExportRecord> exports = dbManager.getAllExportRecords();
+        dbManager.read(this, DatabaseManager::getAllExportRecords, this::showExports);
+    }
+
+    private void showExports(List<ExportRecord> exports) {
         if (adapter == null) {
             adapter = new ExportHistoryAdapter(this, exports, this::showExportOptionsDialog);
             recyclerView.setAdapter(adapter);
@@ -99,31 +123,60 @@ public class ExportHistoryActivity extends AppCompatActivity implements Navigati
                 .show();
     }
 
+    // What a re-export task hands back to the main thread: the file to share, or why there is none
+    private static class ReExport {
+        final File file;
+        final String error;
+
+        ReExport(File file, String error) {
+            this.file = file;
+            this.error = error;
+        }
+    }
+
+    // Unpacking the backup and laying out the PDF run on the reader pool, not the main thread
     private void reExportAsPdf(ExportRecord record) {
-        File backupCsv = new File(getBackupPath(record.filepath));
+        dbManager.read(this, db -> renderPdf(record), result -> {
+            if (result.file == null) {
+                Toast.makeText(this, result.error, Toast.LENGTH_LONG).show();
+                return;
+            }
+            shareFile(result.file, "application/pdf");
+            Toast.makeText(this, "PDF re-exported successfully", Toast.LENGTH_SHORT).show();
+        });
+    }
 
-        if (!backupCsv.exists()) {
-            Toast.makeText(this, "Error: Backup file not found", Toast.LENGTH_LONG).show();
-            Log.e(TAG, "Backup CSV not found: " + backupCsv.getAbsolutePath());
-            return;
+    private ReExport renderPdf(ExportRecord record) {
+        if (!hasBackup(record)) {
+            Log.e(TAG, "Backup not found for export " + record.id);
+            return new ReExport(null, "Error: Backup file not found");
         }
 
         try {
-            PdfExporter pdfExporter = new PdfExporter(this, dbManager);
-            String displayName = record.exportName != null && !record.exportName.isEmpty()
-                    ? record.exportName
-                    : extractDateFromFilename(record.filename);
-            File pdfFile = pdfExporter.exportFromBackupCsv(backupCsv, getReExportFilename(record.filename, "pdf"), displayName);
+            PdfExporter pdfExporter = new PdfExporter(this);
+            File pdfFile;
+            ExportReport snapshot = hasSnapshot(record) ? readSnapshotOrNull(record) : null;
+            if (snapshot != null) {
+                // Laid out again from the report as it was, totals and tree included
+                pdfFile = new File(new File(getFilesDir(), "exports"), getReExportFilename(record.filename, "pdf"));
+                pdfExporter.write(snapshot, pdfFile);
+            } else if (!hasCsvBackup(record)) {
+                return new ReExport(null, "Error re-exporting PDF");
+            } else {
+                String displayName = record.exportName != null && !record.exportName.isEmpty()
+                        ? record.exportName
+                        : extractDateFromFilename(record.filename);
+                pdfFile = pdfExporter.exportFromBackupCsv(openBackup(record),
+                        getReExportFilename(record.filename, "pdf"), displayName);
+            }
 
             if (pdfFile != null && pdfFile.exists()) {
-                shareFile(pdfFile, "application/pdf");
-                Toast.makeText(this, "PDF re-exported successfully", Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, "Failed to re-export PDF", Toast.LENGTH_SHORT).show();
+                return new ReExport(pdfFile, null);
             }
+            return new ReExport(null, "Failed to re-export PDF");
         } catch (Exception e) {
             Log.e(TAG, "Error re-exporting PDF", e);
-            Toast.makeText(this, "Error re-exporting PDF", Toast.LENGTH_LONG).show();
+            return new ReExport(null, "Error re-exporting PDF");
         }
     }
 
@@ -140,36 +193,93 @@ public class ExportHistoryActivity extends AppCompatActivity implements Navigati
 
 
     private void reExportAsCsv(ExportRecord record) {
-        File backupCsv = new File(getBackupPath(record.filepath));
+        dbManager.read(this, db -> renderCsv(record), result -> {
+            if (result.file == null) {
+                Toast.makeText(this, result.error, Toast.LENGTH_LONG).show();
+                return;
+            }
+            shareFile(result.file, "text/csv");
+            Toast.makeText(this, "CSV re-exported successfully", Toast.LENGTH_SHORT).show();
+        });
+    }
 
-        if (!backupCsv.exists()) {
-            Toast.makeText(this, "Error: Backup file not found", Toast.LENGTH_LONG).show();
-            Log.e(TAG, "Backup CSV not found: " + backupCsv.getAbsolutePath());
-            return;
+    private ReExport renderCsv(ExportRecord record) {
+        if (!hasBackup(record)) {
+            Log.e(TAG, "Backup not found for export " + record.id);
+            return new ReExport(null, "Error: Backup file not found");
         }
 
         try {
-            // Copy the backup CSV to a new file for sharing
             File exportsDir = new File(getFilesDir(), "exports");
             File csvFile = new File(exportsDir, getReExportFilename(record.filename, "csv"));
 
-            java.io.FileInputStream fis = new java.io.FileInputStream(backupCsv);
-            java.io.FileOutputStream fos = new java.io.FileOutputStream(csvFile);
-
-            byte[] buffer = new byte[1024];
-            int length;
-            while ((length = fis.read(buffer)) > 0) {
-                fos.write(buffer, 0, length);
+            // A backup never changes, so an earlier re-export of it can be shared as it is.
+            // The stored CSV is the original byte for byte; the snapshot renders the same rows.
+            if (!csvFile.exists() || csvFile.length() == 0) {
+                if (hasCsvBackup(record)) {
+                    if (record.backupHash != null) {
+                        backupStore.restore(record.backupHash, csvFile);
+                    } else {
+                        copyLegacyBackup(new File(getBackupPath(record.filepath)), csvFile);
+                    }
+                } else {
+                    new CsvExporter().write(loadSnapshot(record), csvFile);
+                }
             }
-
-            fis.close();
-            fos.close();
-
-            shareFile(csvFile, "text/csv");
-            Toast.makeText(this, "CSV re-exported successfully", Toast.LENGTH_SHORT).show();
+            return new ReExport(csvFile, null);
         } catch (Exception e) {
             Log.e(TAG, "Error re-exporting CSV", e);
-            Toast.makeText(this, "Error re-exporting CSV", Toast.LENGTH_LONG).show();
+            return new ReExport(null, "Error re-exporting CSV");
+        }
+    }
+
+    private boolean hasBackup(ExportRecord record) {
+        return hasSnapshot(record) || hasCsvBackup(record);
+    }
+
+    private boolean hasSnapshot(ExportRecord record) {
+        return record.snapshotHash != null && backupStore.contains(record.snapshotHash, ReportArchive.SUFFIX);
+    }
+
+    private boolean hasCsvBackup(ExportRecord record) {
+        if (record.backupHash != null) {
+            return backupStore.contains(record.backupHash);
+        }
+        return new File(getBackupPath(record.filepath)).exists();
+    }
+
+    // A damaged snapshot is skipped in favour of the CSV backup, when there is one
+    private ExportReport readSnapshotOrNull(ExportRecord record) {
+        try {
+            return loadSnapshot(record);
+        } catch (IOException e) {
+            Log.e(TAG, "Unreadable snapshot for export " + record.id, e);
+            return null;
+        }
+    }
+
+    private ExportReport loadSnapshot(ExportRecord record) throws IOException {
+        return ReportArchive.read(backupStore.open(record.snapshotHash, ReportArchive.SUFFIX));
+    }
+
+    private BufferedReader openBackup(ExportRecord record) throws IOException {
+        InputStream in = record.backupHash != null
+                ? backupStore.open(record.backupHash)
+                : new FileInputStream(getBackupPath(record.filepath));
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    private static void copyLegacyBackup(File backupCsv, File target) throws IOException {
+        try (FileChannel in = new FileInputStream(backupCsv).getChannel();
+             FileChannel out = new FileOutputStream(target).getChannel()) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        } catch (IOException e) {
+            target.delete();
+            throw e;
         }
     }
 
@@ -182,7 +292,18 @@ public class ExportHistoryActivity extends AppCompatActivity implements Navigati
                 .show();
     }
 
+    // The record and its files go on the writer, so the reference check sees every other delete
     private void deleteExport(ExportRecord record) {
+        dbManager.write(this, db -> deleteExportFiles(db, record), deleted -> {
+            if (deleted) {
+                Toast.makeText(this, "Export deleted successfully", Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(this, "Error deleting export", Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    private boolean deleteExportFiles(DatabaseManager db, ExportRecord record) {
         try {
             // Delete original export file
             File originalFile = new File(record.filepath);
@@ -191,24 +312,33 @@ public class ExportHistoryActivity extends AppCompatActivity implements Navigati
                 Log.d(TAG, "Deleted original file: " + originalFile.getAbsolutePath());
             }
 
-            // Delete backup CSV
-            File backupCsv = new File(getBackupPath(record.filepath));
-            if (backupCsv.exists()) {
-                backupCsv.delete();
-                Log.d(TAG, "Deleted backup CSV: " + backupCsv.getAbsolutePath());
-            }
-
             // Delete any re-export files
             deleteReExportFiles(record.filename);
 
             // Remove from database
-            dbManager.deleteExportRecord(record.id);
+            db.deleteExportRecord(record.id);
 
-            Toast.makeText(this, "Export deleted successfully", Toast.LENGTH_SHORT).show();
-            loadExports();
+            // Delete the backup and snapshot, unless an identical export still uses them
+            if (record.snapshotHash != null && !db.isBackupReferenced(record.snapshotHash)) {
+                backupStore.delete(record.snapshotHash, ReportArchive.SUFFIX);
+                Log.d(TAG, "Deleted snapshot " + record.snapshotHash);
+            }
+            if (record.backupHash != null) {
+                if (!db.isBackupReferenced(record.backupHash)) {
+                    backupStore.delete(record.backupHash);
+                    Log.d(TAG, "Deleted backup " + record.backupHash);
+                }
+            } else {
+                File backupCsv = new File(getBackupPath(record.filepath));
+                if (backupCsv.exists()) {
+                    backupCsv.delete();
+                    Log.d(TAG, "Deleted backup CSV: " + backupCsv.getAbsolutePath());
+                }
+            }
+            return true;
         } catch (Exception e) {
             Log.e(TAG, "Error deleting export", e);
-            Toast.makeText(this, "Error deleting export", Toast.LENGTH_LONG).show();
+            return false;
         }
     }
 
@@ -229,9 +359,10 @@ public class ExportHistoryActivity extends AppCompatActivity implements Navigati
         }
     }
 
+    // Where exports from before the backup store kept their backup
     private String getBackupPath(String originalPath) {
         File originalFile = new File(originalPath);
-        File backupDir = new File(getFilesDir(), "exports/backup");
+        File backupDir = new File(getFilesDir(), BackupStore.BACKUP_DIR);
         return new File(backupDir, "backup_" + originalFile.getName().replaceFirst("\\.[^.]+$", ".csv")).getAbsolutePath();
     }
 
@@ -282,6 +413,8 @@ public class ExportHistoryActivity extends AppCompatActivity implements Navigati
         } else if (id == R.id.nav_export_history) {
             drawerLayout.closeDrawer(GravityCompat.START);
             return true;
+        } else if (id == R.id.nav_clean_photos) {
+            MediaCollector.showCleanUpDialog(this);
         } else if (id == R.id.nav_reset_sales) {
             showResetSalesDialog();
         }
@@ -294,18 +427,24 @@ public class ExportHistoryActivity extends AppCompatActivity implements Navigati
         new AlertDialog.Builder(this)
                 .setTitle("Reset All Sales")
                 .setMessage("Are you sure you want to delete all sales? This will reset all sales records and item counters. This action cannot be undone.")
-                .setPositiveButton("Yes, Reset", (dialog, which) -> {
-                    boolean success = dbManager.resetAllSales();
-                    if (success) {
-                        Toast.makeText(this, "All sales have been reset", Toast.LENGTH_SHORT).show();
-                    } else {
-                        Toast.makeText(this, "Failed to reset sales", Toast.LENGTH_SHORT).show();
-                    }
-                })
+                .setPositiveButton("Yes, Reset", (dialog, which) ->
+                        dbManager.write(this, DatabaseManager::resetAllSales, success -> {
+                            if (success) {
+                                Toast.makeText(this, "All sales have been reset", Toast.LENGTH_SHORT).show();
+                            } else {
+                                Toast.makeText(this, "Failed to reset sales", Toast.LENGTH_SHORT).show();
+                            }
+                        }))
                 .setNegativeButton("Cancel", null)
                 .show();
     }
 
+    @Override
+    protected void onDestroy() {
+        dbManager.unsubscribe(changeListener);
+        super.onDestroy();
+    }
+
     @Override
     public void onBackPressed() {
         if (drawerLayout.isDrawerOpen(GravityCompat.START)) {
@@ -314,10 +453,4 @@ public class ExportHistoryActivity extends AppCompatActivity implements Navigati
             super.onBackPressed();
         }
     }
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        dbManager.close();
-    }
 }
\ No newline at end of file
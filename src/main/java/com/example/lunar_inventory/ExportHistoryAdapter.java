@@ -9,7 +9,6 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
@@ -86,15 +85,9 @@ public class ExportHistoryAdapter extends RecyclerView.Adapter<ExportHistoryAdap
     }
 
 
-    private String formatDateTime(String dateTime) {
-        try {
-            SimpleDateFormat inputFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
-            SimpleDateFormat outputFormat = new SimpleDateFormat("MMM dd, yyyy HH:mm", Locale.getDefault());
-            Date date = inputFormat.parse(dateTime);
-            return date != null ? outputFormat.format(date) : dateTime;
-        } catch (ParseException e) {
-            return dateTime;
-        }
+    private String formatDateTime(long dateTime) {
+        SimpleDateFormat outputFormat = new SimpleDateFormat("MMM dd, yyyy HH:mm", Locale.getDefault());
+        return outputFormat.format(new Date(dateTime));
     }
 
     @Override
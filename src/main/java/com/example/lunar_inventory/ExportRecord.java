@@ -4,14 +4,19 @@ class ExportRecord {
     public int id;
     public String filename;
     public String filepath;
-    public String exportTime;
+    public long exportTime;
     public int batchId;
     public String format;
     public boolean isFullExport;
     public String exportName;
+    // Key in the BackupStore, or null for exports whose backup is a plain backup_*.csv
+    public String backupHash;
+    // Key of the ReportArchive snapshot in the BackupStore, or null for older exports
+    public String snapshotHash;
 
-    public ExportRecord(int id, String filename, String filepath, String exportTime,
-                        int batchId, String format, boolean isFullExport, String exportName) {
+    public ExportRecord(int id, String filename, String filepath, long exportTime,
+                        int batchId, String format, boolean isFullExport, String exportName,
+                        String backupHash, String snapshotHash) {
         this.id = id;
         this.filename = filename;
         this.filepath = filepath;
@@ -20,5 +25,7 @@ class ExportRecord {
         this.format = format;
         this.isFullExport = isFullExport;
         this.exportName = exportName;
+        this.backupHash = backupHash;
+        this.snapshotHash = snapshotHash;
     }
 }
\ No newline at end of file
@@ -0,0 +1,156 @@
+package com.example.lunar_inventory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Everything an export shows, read once: the category tree with counts and revenue rolled up
+// from the items below, the item/price lines of each category, and the grand total. Renderers
+// only walk it, so the CSV, the PDF and the backup of one export always agree.
+class ExportReport {
+    static class Line {
+        public final String name;
+        // The name with its discount, e.g. "Tea 50% off"
+        public final String label;
+        public final double soldPrice;
+        public final double basePrice;
+        public final int quantity;
+        public final double total;
+
+        Line(String name, double soldPrice, double basePrice, int quantity) {
+            this.name = name;
+            this.soldPrice = soldPrice;
+            this.basePrice = basePrice;
+            this.quantity = quantity;
+            this.total = soldPrice * quantity;
+            String indicator = getPriceIndicator(soldPrice, basePrice);
+            this.label = indicator.isEmpty() ? name : name + " " + indicator;
+        }
+    }
+
+    static class Group {
+        public final String name;
+        // "None" at the top level
+        public final String parentName;
+        public final int depth;
+        // Subcategories first, then this category's own lines, as they are laid out
+        public final List<Group> children = new ArrayList<>();
+        public final List<Line> lines = new ArrayList<>();
+        // Including every subcategory
+        public int count;
+        public double total;
+
+        Group(String name, String parentName, int depth) {
+            this.name = name;
+            this.parentName = parentName;
+            this.depth = depth;
+        }
+    }
+
+    public final String title;
+    public final String dateRange;
+    public final List<Group> categories;
+    public final List<Line> uncategorized;
+    public final int count;
+    public final double total;
+
+    ExportReport(String title, String dateRange, List<Group> categories, List<Line> uncategorized) {
+        this.title = title;
+        this.dateRange = dateRange;
+        this.categories = Collections.unmodifiableList(categories);
+        this.uncategorized = Collections.unmodifiableList(uncategorized);
+
+        int count = 0;
+        double total = 0;
+        for (Group group : categories) {
+            count += group.count;
+            total += group.total;
+        }
+        for (Line line : uncategorized) {
+            count += line.quantity;
+            total += line.total;
+        }
+        this.count = count;
+        this.total = total;
+    }
+
+    // Call inside a snapshot so the categories and the sales are from the same point in time.
+    // batchId is null for every batch.
+    static ExportReport load(DatabaseManager db, Integer batchId, String title, String dateRange) {
+        CategoryTree tree = new CategoryTree(db.getAllCategories(true));
+        List<CategoryTree.Node> nodes = tree.getNodes();
+
+        List<Group> groups = new ArrayList<>(nodes.size());
+        Map<Integer, Group> groupsById = new HashMap<>();
+        List<Group> topLevel = new ArrayList<>();
+        for (CategoryTree.Node node : nodes) {
+            // Parents come first in depth-first order
+            Group parent = node.category.parentCategory == null ? null : groupsById.get(node.category.parentCategory);
+            Group group = new Group(node.category.name, parent == null ? "None" : parent.name, node.depth);
+            (parent == null ? topLevel : parent.children).add(group);
+            groups.add(group);
+            groupsById.put(node.category.id, group);
+        }
+
+        List<Line> uncategorized = new ArrayList<>();
+        for (SaleGroup sale : db.getSalesGroupedForExport(batchId)) {
+            Line line = new Line(sale.itemName, sale.soldPrice, sale.basePrice, sale.quantity);
+            if (sale.categoryId == null) {
+                uncategorized.add(line);
+                continue;
+            }
+            // Items of a category that cannot be reached from the top are left out, as before
+            Group group = groupsById.get(sale.categoryId);
+            if (group != null) {
+                group.lines.add(line);
+                group.count += line.quantity;
+                group.total += line.total;
+            }
+        }
+
+        // Leaves first, so every subtree is complete before it is added to its parent
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            Integer parentId = nodes.get(i).category.parentCategory;
+            Group parent = parentId == null ? null : groupsById.get(parentId);
+            if (parent != null) {
+                parent.count += groups.get(i).count;
+                parent.total += groups.get(i).total;
+            }
+        }
+
+        return new ExportReport(title, dateRange, topLevel, uncategorized);
+    }
+
+    static String getPriceIndicator(double soldPrice, double basePrice) {
+        if (soldPrice == 0) return "Free";
+        if (soldPrice == basePrice) return "";
+
+        double discount = ((basePrice - soldPrice) / basePrice) * 100;
+        if (Math.abs(discount - 50) < 0.01) return "50% off";
+        if (Math.abs(discount - 25) < 0.01) return "25% off";
+        if (Math.abs(discount - 75) < 0.01) return "75% off";
+
+        return String.format(Locale.US, "%.2f%% off", discount);
+    }
+
+    // Two decimals, exactly as String.format(Locale.US, "%.2f", value), without parsing a format
+    // string for every cell. String.format rounds the shortest decimal form half-up, so 1.005
+    // is 1.01 although 1.005 * 100 is just below 100.5; amounts that close to a half cent, and
+    // anything too large or not finite, are left to String.format itself.
+    static StringBuilder appendAmount(StringBuilder out, double value) {
+        double scaled = Math.abs(value) * 100;
+        if (!(scaled < 1e15) || Math.abs(scaled - Math.floor(scaled) - 0.5) <= Math.max(1e-6, 4 * Math.ulp(scaled))) {
+            return out.append(String.format(Locale.US, "%.2f", value));
+        }
+        long cents = Math.round(scaled);
+        // Like String.format, -0.001 and -0.0 keep their sign
+        if (Double.doubleToRawLongBits(value) < 0) out.append('-');
+        out.append(cents / 100).append('.');
+        long fraction = cents % 100;
+        if (fraction < 10) out.append('0');
+        return out.append(fraction);
+    }
+}
@@ -25,6 +25,7 @@ import androidx.drawerlayout.widget.DrawerLayout;
 import com.google.android.material.navigation.NavigationView;
 
 import java.io.File;
+import java.util.List;
 
 public class ExportSalesActivity extends AppCompatActivity implements NavigationView.OnNavigationItemSelectedListener {
     private static final String TAG = "ExportSalesActivity";
@@ -38,13 +39,14 @@ public class ExportSalesActivity extends AppCompatActivity implements Navigation
     private TextView exportInfo;
     private Button exportButton;
     private DatabaseManager dbManager;
+    private final ChangeBus.Listener changeListener = this::onDataChanged;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_export_sales);
 
-        dbManager = new DatabaseManager(this);
+        dbManager = DatabaseManager.getInstance(this);
 
         Toolbar toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -93,12 +95,26 @@ public class ExportSalesActivity extends AppCompatActivity implements Navigation
         endBatchCheckbox.setOnCheckedChangeListener((buttonView, isChecked) -> updateExportInfo());
 
         exportButton.setOnClickListener(v -> performExport());
+
+        dbManager.subscribe(changeListener);
+    }
+
+    private void onDataChanged(List<DataChange> changes) {
+        for (DataChange change : changes) {
+            if (change.affectsSales()) {
+                updateExportInfo();
+                return;
+            }
+        }
     }
 
     private void updateExportInfo() {
-        int currentBatchCount = dbManager.getCurrentBatchSaleCount();
-        int totalCount = dbManager.getTotalSaleCount();
+        dbManager.readSnapshot(this,
+                db -> new int[]{db.getCurrentBatchSaleCount(), db.getTotalSaleCount()},
+                counts -> showExportInfo(counts[0], counts[1]));
+    }
 
+    private void showExportInfo(int currentBatchCount, int totalCount) {
         StringBuilder info = new StringBuilder();
         info.append("Current Batch Sales: ").append(currentBatchCount).append("\n");
         info.append("Total Sales (All Batches): ").append(totalCount).append("\n\n");
@@ -106,7 +122,7 @@ public class ExportSalesActivity extends AppCompatActivity implements Navigation
         if (currentBatchRadio.isChecked()) {
             info.append("Will export: ").append(currentBatchCount).append(" sales from current batch");
             if (endBatchCheckbox.isChecked()) {
-                info.append("\n\nA new batch will be started after export");
+                info.append("\n\nSales from now on will go to a new batch");
             }
         } else {
             info.append("Will export: ").append(totalCount).append(" sales from all batches");
@@ -118,60 +134,85 @@ public class ExportSalesActivity extends AppCompatActivity implements Navigation
     private void performExport() {
         boolean isCurrentBatch = currentBatchRadio.isChecked();
         boolean endBatch = endBatchCheckbox.isChecked();
-        String format = csvRadio.isChecked() ? "CSV" : "PDF";
-
-        // Get export name
+        boolean asCsv = csvRadio.isChecked();
+        String format = asCsv ? "CSV" : "PDF";
         String customName = exportNameInput.getText().toString().trim();
-        String exportName;
-        if (!customName.isEmpty()) {
-            exportName = customName;
-        } else {
-            exportName = isCurrentBatch ? dbManager.getCurrentBatchName() : "All Batches";
-        }
 
-        String dateRange = dbManager.getExportDateRange(isCurrentBatch);
-        int batchId = isCurrentBatch ? dbManager.getCurrentBatchId() : -1;
+        // The batch is captured, and rolled over first when asked, before anything is read:
+        // sales the journal flushes while the export is written go to the new batch, and the
+        // report reads the captured batch by id, so it cannot gain or lose any of them
+        exportButton.setEnabled(false);
+        dbManager.write(this, db -> {
+            String exportName;
+            int batchId = db.getCurrentBatchId();
+            Integer exportedBatchId = isCurrentBatch ? batchId : null;
+            ExportReport report;
+
+            if (isCurrentBatch && endBatch) {
+                db.createNewBatch();
+            }
 
-        Log.d(TAG, "Starting export - Format: " + format + ", Name: " + exportName + ", Date Range: " + dateRange);
+            // Name, date range and report all come from the same point in time
+            db.beginSnapshot();
+            try {
+                // Get export name
+                if (!customName.isEmpty()) {
+                    exportName = customName;
+                } else {
+                    exportName = isCurrentBatch ? db.getBatchName(batchId) : "All Batches";
+                }
 
-        // Generate export file
-        File exportFile;
-        if (csvRadio.isChecked()) {
-            CsvExporter csvExporter = new CsvExporter(this, dbManager);
-            exportFile = csvExporter.exportToCsv(isCurrentBatch, exportName, dateRange);
-        } else {
-            PdfExporter pdfExporter = new PdfExporter(this, dbManager);
-            exportFile = pdfExporter.exportToPdf(isCurrentBatch, exportName, dateRange);
-        }
+                String dateRange = db.getExportDateRange(exportedBatchId);
 
-        if (exportFile == null || !exportFile.exists()) {
-            Log.e(TAG, "Failed to generate export or file doesn't exist");
-            Toast.makeText(this, "Failed to generate export", Toast.LENGTH_SHORT).show();
-            return;
-        }
+                Log.d(TAG, "Starting export - Format: " + format + ", Name: " + exportName + ", Date Range: " + dateRange);
 
-        Log.d(TAG, "Export generated successfully at: " + exportFile.getAbsolutePath());
-        Log.d(TAG, "File exists: " + exportFile.exists() + ", Size: " + exportFile.length() + " bytes");
+                report = ExportReport.load(db, exportedBatchId, exportName, dateRange);
+            } finally {
+                db.endSnapshot();
+            }
 
-        // Save export record with custom name
-        String exportNameToSave = customName.isEmpty() ? null : customName;
-        dbManager.saveExportRecord(exportFile.getName(), exportFile.getAbsolutePath(),
-                isCurrentBatch ? batchId : null, format, !isCurrentBatch, exportNameToSave);
+            // The export file and its backup are both drawn from the report, without the database
+            ReportRenderer renderer = asCsv ? new CsvExporter() : new PdfExporter(this);
+            ReportExporter.Output output = new ReportExporter(this).export(report, renderer);
 
-        // Update batch export time
-        if (isCurrentBatch) {
-            dbManager.updateBatchExportTime(batchId);
-        }
+            if (output == null || !output.file.exists()) {
+                return null;
+            }
+            File exportFile = output.file;
 
-        // Create new batch if requested
-        if (isCurrentBatch && endBatch) {
-            dbManager.createNewBatch();
-            Toast.makeText(this, "New batch started", Toast.LENGTH_SHORT).show();
-            updateExportInfo();
-        }
+            // Save export record with custom name
+            String exportNameToSave = customName.isEmpty() ? null : customName;
+            db.saveExportRecord(exportFile.getName(), exportFile.getAbsolutePath(),
+                    exportedBatchId, format, !isCurrentBatch, exportNameToSave,
+                    output.backupHash, output.snapshotHash);
 
-        // Share the file
-        shareFile(exportFile);
+            // Update batch export time
+            if (isCurrentBatch) {
+                db.updateBatchExportTime(batchId);
+            }
+            return exportFile;
+        }, exportFile -> {
+            exportButton.setEnabled(true);
+
+            if (exportFile == null) {
+                Log.e(TAG, "Failed to generate export or file doesn't exist");
+                Toast.makeText(this, "Failed to generate export", Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            Log.d(TAG, "Export generated successfully at: " + exportFile.getAbsolutePath());
+            Log.d(TAG, "File exists: " + exportFile.exists() + ", Size: " + exportFile.length() + " bytes");
+
+            if (isCurrentBatch && endBatch) {
+                Toast.makeText(this, "New batch started", Toast.LENGTH_SHORT).show();
+            }
+
+            // Share the file
+            shareFile(exportFile);
+        }, e -> {
+            exportButton.setEnabled(true);
+            Toast.makeText(this, "Failed to generate export", Toast.LENGTH_SHORT).show();
+        });
     }
 
     private void shareFile(File file) {
@@ -234,6 +275,8 @@ public class ExportSalesActivity extends AppCompatActivity implements Navigation
         } else if (id == R.id.nav_export_history) {
             Intent intent = new Intent(this, ExportHistoryActivity.class);
             startActivity(intent);
+        } else if (id == R.id.nav_clean_photos) {
+            MediaCollector.showCleanUpDialog(this);
         } else if (id == R.id.nav_reset_sales) {
             showResetSalesDialog();
         }
@@ -246,19 +289,24 @@ public class ExportSalesActivity extends AppCompatActivity implements Navigation
         new AlertDialog.Builder(this)
                 .setTitle("Reset All Sales")
                 .setMessage("Are you sure you want to delete all sales? This will reset all sales records and item counters. This action cannot be undone.")
-                .setPositiveButton("Yes, Reset", (dialog, which) -> {
-                    boolean success = dbManager.resetAllSales();
-                    if (success) {
-                        Toast.makeText(this, "All sales have been reset", Toast.LENGTH_SHORT).show();
-                        updateExportInfo();
-                    } else {
-                        Toast.makeText(this, "Failed to reset sales", Toast.LENGTH_SHORT).show();
-                    }
-                })
+                .setPositiveButton("Yes, Reset", (dialog, which) ->
+                        dbManager.write(this, DatabaseManager::resetAllSales, success -> {
+                            if (success) {
+                                Toast.makeText(this, "All sales have been reset", Toast.LENGTH_SHORT).show();
+                            } else {
+                                Toast.makeText(this, "Failed to reset sales", Toast.LENGTH_SHORT).show();
+                            }
+                        }))
                 .setNegativeButton("Cancel", null)
                 .show();
     }
 
+    @Override
+    protected void onDestroy() {
+        dbManager.unsubscribe(changeListener);
+        super.onDestroy();
+    }
+
     @Override
     public void onBackPressed() {
         if (drawerLayout.isDrawerOpen(GravityCompat.START)) {
@@ -267,10 +315,4 @@ public class ExportSalesActivity extends AppCompatActivity implements Navigation
             super.onBackPressed();
         }
     }
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        dbManager.close();
-    }
 }
\ No newline at end of file
@@ -0,0 +1,180 @@
+package com.example.lunar_inventory;
+
+import android.app.Activity;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Turns a picked photo into the picture file an item or category points at. Each distinct
+// photo is stored once, under files/media/<first two hex digits>/<sha-256 of the photo>.jpg,
+// capped at MAX_IMAGE_SIZE, next to a ready-made thumbnail for the home screen tiles.
+class ImageIngest {
+    private static final String TAG = "ImageIngest";
+    static final String MEDIA_DIR = "media";
+    static final String THUMBNAIL_SUFFIX = "_thumb.jpg";
+    // Long side of the stored picture, and of its thumbnail
+    private static final int MAX_IMAGE_SIZE = 1600;
+    static final int THUMBNAIL_SIZE = 640;
+    private static final int IMAGE_QUALITY = 90;
+    private static final int THUMBNAIL_QUALITY = 85;
+    private static ImageIngest instance;
+
+    public interface Callback {
+        // path is null when the photo could not be read
+        void onIngested(String path);
+    }
+
+    private final File mediaDir;
+    private final ContentResolver resolver;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public static synchronized ImageIngest getInstance(Context context) {
+        if (instance == null) {
+            instance = new ImageIngest(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ImageIngest(Context context) {
+        mediaDir = new File(context.getFilesDir(), MEDIA_DIR);
+        resolver = context.getContentResolver();
+    }
+
+    public void ingest(Activity owner, Uri uri, Callback callback) {
+        worker.submit(() -> {
+            String path = null;
+            try {
+                path = store(uri);
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Failed to ingest " + uri, e);
+            }
+            String result = path;
+            mainHandler.post(() -> {
+                if (owner.isFinishing() || owner.isDestroyed()) return;
+                callback.onIngested(result);
+            });
+        });
+    }
+
+    // The pre-generated thumbnail for a stored picture, or null for older pictures
+    static File thumbnailFor(String picturePath) {
+        if (picturePath == null || !picturePath.endsWith(".jpg")) return null;
+        File thumbnail = new File(picturePath.substring(0, picturePath.length() - 4) + THUMBNAIL_SUFFIX);
+        return thumbnail.exists() ? thumbnail : null;
+    }
+
+    private String store(Uri uri) throws IOException {
+        // Hashing the source first means a photo picked again is never decoded again
+        String hash = hashOf(uri);
+        File shard = new File(mediaDir, hash.substring(0, 2));
+        File picture = new File(shard, hash + ".jpg");
+        File thumbnail = new File(shard, hash + THUMBNAIL_SUFFIX);
+        if (picture.exists() && thumbnail.exists()) {
+            // Picked again before it is saved, so MediaCollector's grace period must start over
+            long now = System.currentTimeMillis();
+            picture.setLastModified(now);
+            thumbnail.setLastModified(now);
+            return picture.getAbsolutePath();
+        }
+        if (!shard.exists() && !shard.mkdirs()) {
+            throw new IOException("Could not create " + shard);
+        }
+
+        Bitmap bitmap = decode(uri);
+        if (bitmap == null) {
+            throw new IOException("Not a readable image: " + uri);
+        }
+        try {
+            write(bitmap, picture, IMAGE_QUALITY);
+            Bitmap small = ThumbnailLoader.scaleDown(bitmap, THUMBNAIL_SIZE);
+            write(small, thumbnail, THUMBNAIL_QUALITY);
+            if (small != bitmap) small.recycle();
+        } finally {
+            bitmap.recycle();
+        }
+        return picture.getAbsolutePath();
+    }
+
+    private String hashOf(Uri uri) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream in = open(uri)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    // Bounds first, then a sampled decode, so a 50 MP photo never lands on the heap whole
+    private Bitmap decode(Uri uri) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = open(uri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        options.inSampleSize = ThumbnailLoader.sampleSize(options.outWidth, options.outHeight, MAX_IMAGE_SIZE);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap;
+        try (InputStream in = open(uri)) {
+            bitmap = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (bitmap == null) return null;
+
+        Bitmap capped = ThumbnailLoader.scaleDown(bitmap, MAX_IMAGE_SIZE);
+        if (capped != bitmap) bitmap.recycle();
+        return capped;
+    }
+
+    private InputStream open(Uri uri) throws IOException {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Could not open " + uri);
+        }
+        return in;
+    }
+
+    // Written under a temporary name, so a crash never leaves a half-written picture behind
+    private static void write(Bitmap bitmap, File file, int quality) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out)) {
+                throw new IOException("Could not encode " + file.getName());
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not move " + tmp + " into place");
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.lunar_inventory;
+
+import android.app.Application;
+
+public class LunarInventoryApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Start opening the database before the first screen asks for it
+        DatabaseManager.getInstance(this);
+    }
+}
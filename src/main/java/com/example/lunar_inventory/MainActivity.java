@@ -29,6 +29,10 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
     private MainAdapter adapter;
     private DatabaseManager dbManager;
     private Integer currentCategoryId = null;
+    // Everything the home screen shows; navigating only walks this
+    private CatalogSnapshot catalog;
+    private ThumbnailPrefetcher prefetcher;
+    private final ChangeBus.Listener changeListener = this::onDataChanged;
     private View categoryHeader;
     private TextView categoryTitle;
     private Button backButton;
@@ -38,7 +42,7 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        dbManager = new DatabaseManager(this);
+        dbManager = DatabaseManager.getInstance(this);
 
         Toolbar toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -69,37 +73,70 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 
         adapter = new MainAdapter(this, new ArrayList<>(), dbManager);
         recyclerView.setAdapter(adapter);
+        prefetcher = new ThumbnailPrefetcher(ThumbnailLoader.getInstance(this), adapter.getTileSize());
 
         backButton.setOnClickListener(v -> goBackToParentCategory());
 
-        loadData();
+        dbManager.subscribe(changeListener);
+        loadCatalog();
     }
 
-    private void loadData() {
+    // Brings the catalog up to date after anything that can change a tile; the diff then
+    // rebinds only the tiles that actually changed
+    private void onDataChanged(List<DataChange> changes) {
+        for (DataChange change : changes) {
+            if (change.affectsCatalog() || change.type == DataChange.Type.ITEM_COUNTERS) {
+                loadCatalog();
+                return;
+            }
+        }
+    }
+
+    private void loadCatalog() {
+        dbManager.read(this, DatabaseManager::getCatalog, snapshot -> {
+            // Reads can finish out of order; never go back to an older catalog
+            if (catalog != null && snapshot.version <= catalog.version) return;
+            catalog = snapshot;
+            showCategory();
+        });
+    }
+
+    // Draws the current category straight from the catalog snapshot, without any I/O
+    private void showCategory() {
+        if (catalog == null) return;
+
+        Category category = null;
+        if (currentCategoryId != null) {
+            category = catalog.getCategory(currentCategoryId);
+            if (category == null) {
+                // The category was deleted while it was open
+                currentCategoryId = null;
+            }
+        }
+
         List<Object> items = new ArrayList<>();
-        items.addAll(dbManager.getCategories(currentCategoryId, false));
-        items.addAll(dbManager.getItems(currentCategoryId, false));
+        items.addAll(catalog.getCategories(currentCategoryId));
+        items.addAll(catalog.getItems(currentCategoryId));
         adapter.updateData(items);
 
-        if (currentCategoryId == null) {
+        if (category == null) {
             categoryHeader.setVisibility(View.GONE);
         } else {
             categoryHeader.setVisibility(View.VISIBLE);
-            Category cat = dbManager.getCategory(currentCategoryId);
-            if (cat != null) {
-                categoryTitle.setText(cat.name);
-            }
+            categoryTitle.setText(category.name);
         }
+
+        // Whichever tile is tapped next, its pictures should already be decoded
+        prefetcher.prefetch(catalog, currentCategoryId);
     }
 
     private void goBackToParentCategory() {
-        if (currentCategoryId != null) {
-            Category cat = dbManager.getCategory(currentCategoryId);
-            if (cat != null) {
-                currentCategoryId = cat.parentCategory;
-                loadData();
-            }
-        }
+        if (currentCategoryId == null || catalog == null) return;
+
+        Category category = catalog.getCategory(currentCategoryId);
+        Integer parent = category == null ? null : category.parentCategory;
+        currentCategoryId = parent == null || parent == 0 ? null : parent;
+        showCategory();
     }
 
     @Override
@@ -108,7 +145,7 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 
         if (id == R.id.nav_home) {
             currentCategoryId = null;
-            loadData();
+            showCategory();
         } else if (id == R.id.nav_add_item) {
             Intent intent = new Intent(this, AddItemActivity.class);
             startActivity(intent);
@@ -124,6 +161,8 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         } else if (id == R.id.nav_export_history) {
             Intent intent = new Intent(this, ExportHistoryActivity.class);
             startActivity(intent);
+        } else if (id == R.id.nav_clean_photos) {
+            MediaCollector.showCleanUpDialog(this);
         } else if (id == R.id.nav_reset_sales) {
             showResetSalesDialog();
         }
@@ -136,15 +175,14 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         new AlertDialog.Builder(this)
                 .setTitle("Reset All Sales")
                 .setMessage("Are you sure you want to delete all sales? This will reset all sales records and item counters. This action cannot be undone.")
-                .setPositiveButton("Yes, Reset", (dialog, which) -> {
-                    boolean success = dbManager.resetAllSales();
-                    if (success) {
-                        Toast.makeText(this, "All sales have been reset", Toast.LENGTH_SHORT).show();
-                        loadData();
-                    } else {
-                        Toast.makeText(this, "Failed to reset sales", Toast.LENGTH_SHORT).show();
-                    }
-                })
+                .setPositiveButton("Yes, Reset", (dialog, which) ->
+                        dbManager.write(this, DatabaseManager::resetAllSales, success -> {
+                            if (success) {
+                                Toast.makeText(this, "All sales have been reset", Toast.LENGTH_SHORT).show();
+                            } else {
+                                Toast.makeText(this, "Failed to reset sales", Toast.LENGTH_SHORT).show();
+                            }
+                        }))
                 .setNegativeButton("Cancel", null)
                 .show();
     }
@@ -165,17 +203,18 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         new AlertDialog.Builder(this)
                 .setTitle("Delete Item")
                 .setMessage("Are you sure you want to delete this item?")
-                .setPositiveButton("Delete", (dialog, which) -> {
-                    dbManager.deleteItem(itemId);
-                    loadData();
-                })
+                .setPositiveButton("Delete", (dialog, which) ->
+                        dbManager.write(this, db -> db.deleteItem(itemId), null))
                 .setNegativeButton("Cancel", null)
                 .show();
     }
 
     public void deleteCategory(int categoryId) {
-        int itemCount = dbManager.countItemsInCategory(categoryId);
+        dbManager.read(this, db -> db.countItemsInCategory(categoryId),
+                itemCount -> showDeleteCategoryDialog(categoryId, itemCount));
+    }
 
+    private void showDeleteCategoryDialog(int categoryId, int itemCount) {
         if (itemCount > 0) {
             new AlertDialog.Builder(this)
                     .setTitle("Delete Category")
@@ -187,10 +226,8 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
             new AlertDialog.Builder(this)
                     .setTitle("Delete Category")
                     .setMessage("Are you sure you want to delete this category?")
-                    .setPositiveButton("Delete", (dialog, which) -> {
-                        dbManager.deleteCategory(categoryId);
-                        loadData();
-                    })
+                    .setPositiveButton("Delete", (dialog, which) ->
+                            dbManager.write(this, db -> db.deleteCategory(categoryId), null))
                     .setNegativeButton("Cancel", null)
                     .show();
         }
@@ -200,24 +237,31 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         new AlertDialog.Builder(this)
                 .setTitle("Final Confirmation")
                 .setMessage("WARNING: All " + itemCount + " item(s) in this category will also be deleted. This action cannot be undone. Continue?")
-                .setPositiveButton("Delete All", (dialog, which) -> {
-                    dbManager.deleteCategory(categoryId);
-                    loadData();
-                })
+                .setPositiveButton("Delete All", (dialog, which) ->
+                        dbManager.write(this, db -> db.deleteCategory(categoryId), null))
                 .setNegativeButton("Cancel", null)
                 .show();
     }
 
     @Override
-    protected void onResume() {
-        super.onResume();
-        loadData();
+    protected void onStart() {
+        super.onStart();
+        if (catalog != null) {
+            prefetcher.prefetch(catalog, currentCategoryId);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        // Nothing here is about to be shown any more
+        prefetcher.cancel();
+        super.onStop();
     }
 
     @Override
     protected void onDestroy() {
+        dbManager.unsubscribe(changeListener);
         super.onDestroy();
-        dbManager.close();
     }
 
     @Override
@@ -233,6 +277,6 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 
     public void openCategory(int categoryId) {
         currentCategoryId = categoryId;
-        loadData();
+        showCategory();
     }
 }
\ No newline at end of file
@@ -2,8 +2,6 @@ package com.example.lunar_inventory;
 
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -15,51 +13,101 @@ import android.widget.PopupMenu;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 public class MainAdapter extends RecyclerView.Adapter<MainAdapter.ViewHolder> {
+    private static final int TYPE_CATEGORY = 0;
+    private static final int TYPE_ITEM = 1;
+    // Rebind that only has to refresh the sale counters of an item tile
+    private static final Object PAYLOAD_COUNTERS = new Object();
+
     private Context context;
-    private List<Object> items;
     private DatabaseManager dbManager;
+    private final ThumbnailLoader thumbnails;
+    // Two tiles per row
+    private final int tileSize;
+    // Diffs run on a background thread; the list shown lags the latest one until they finish
+    private final AsyncListDiffer<Object> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
 
     public MainAdapter(Context context, List<Object> items, DatabaseManager dbManager) {
         this.context = context;
-        this.items = items;
         this.dbManager = dbManager;
+        this.thumbnails = ThumbnailLoader.getInstance(context);
+        this.tileSize = context.getResources().getDisplayMetrics().widthPixels / 2;
+        setHasStableIds(true);
+        updateData(items);
+    }
+
+    public int getTileSize() {
+        return tileSize;
     }
 
     public void updateData(List<Object> newItems) {
-        this.items = newItems;
-        notifyDataSetChanged();
+        differ.submitList(new ArrayList<>(newItems));
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return differ.getCurrentList().get(position) instanceof Category ? TYPE_CATEGORY : TYPE_ITEM;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        Object obj = differ.getCurrentList().get(position);
+        if (obj instanceof Category) {
+            return (long) ((Category) obj).id << 1;
+        }
+        return ((long) ((Item) obj).id << 1) | 1;
     }
 
     @NonNull
     @Override
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(context).inflate(R.layout.item_card, parent, false);
-        return new ViewHolder(view);
+        ViewHolder holder = new ViewHolder(view);
+
+        // Category tiles never show prices or sale buttons, so set that once per holder
+        boolean isItem = viewType == TYPE_ITEM;
+        holder.price.setVisibility(isItem ? View.VISIBLE : View.GONE);
+        holder.saleButton.setVisibility(isItem ? View.VISIBLE : View.GONE);
+        holder.customSaleButton.setVisibility(isItem ? View.VISIBLE : View.GONE);
+        if (!isItem) {
+            holder.stock.setVisibility(View.GONE);
+        }
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (!payloads.isEmpty() && onlyCounters(payloads)) {
+            bindStock(holder, (Item) differ.getCurrentList().get(position));
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    private static boolean onlyCounters(List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD_COUNTERS) return false;
+        }
+        return true;
     }
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        Object item = items.get(position);
+        Object item = differ.getCurrentList().get(position);
 
         if (item instanceof Category) {
             Category category = (Category) item;
             holder.name.setText(category.name);
-            holder.price.setVisibility(View.GONE);
-            holder.stock.setVisibility(View.GONE);
-            holder.saleButton.setVisibility(View.GONE);
-            holder.customSaleButton.setVisibility(View.GONE);
-
-            if (category.picture != null && !category.picture.isEmpty()) {
-                Bitmap bitmap = BitmapFactory.decodeFile(category.picture);
-                holder.image.setImageBitmap(bitmap);
-            } else {
-                holder.image.setImageResource(android.R.color.transparent);
-            }
+
+            bindPicture(holder, category.picture);
 
             holder.itemView.setOnClickListener(v -> {
                 if (context instanceof MainActivity) {
@@ -72,40 +120,17 @@ public class MainAdapter extends RecyclerView.Adapter<MainAdapter.ViewHolder> {
         } else if (item instanceof Item) {
             Item itemObj = (Item) item;
             holder.name.setText(itemObj.name);
-
-            holder.price.setVisibility(View.VISIBLE);
             holder.price.setText(String.format("€%.2f", itemObj.basePrice));
+            bindStock(holder, itemObj);
 
-            if (itemObj.currentStock != -1) {
-                holder.stock.setVisibility(View.VISIBLE);
-                holder.stock.setText("Stock: " + itemObj.currentStock);
-            } else {
-                holder.stock.setVisibility(View.GONE);
-            }
-
-            holder.saleButton.setVisibility(View.VISIBLE);
-            holder.customSaleButton.setVisibility(View.VISIBLE);
-
-            if (itemObj.picture != null && !itemObj.picture.isEmpty()) {
-                Bitmap bitmap = BitmapFactory.decodeFile(itemObj.picture);
-                holder.image.setImageBitmap(bitmap);
-            } else {
-                holder.image.setImageResource(android.R.color.transparent);
-            }
+            bindPicture(holder, itemObj.picture);
 
             holder.saleButton.setOnClickListener(v -> {
                 // Animate button press
                 animateButtonPress(v);
 
-                // Record sale
+                // Record sale; the tile refreshes when the sale is committed
                 dbManager.addSale(itemObj.id, itemObj.basePrice);
-
-                // Refresh UI after animation
-                v.postDelayed(() -> {
-                    if (context instanceof MainActivity) {
-                        ((MainActivity) context).onResume();
-                    }
-                }, 200);
             });
 
             holder.customSaleButton.setOnClickListener(v -> {
@@ -119,6 +144,28 @@ public class MainAdapter extends RecyclerView.Adapter<MainAdapter.ViewHolder> {
         }
     }
 
+    private void bindPicture(ViewHolder holder, String picture) {
+        if (picture != null && !picture.isEmpty()) {
+            thumbnails.load(picture, holder.image, tileSize);
+        } else {
+            thumbnails.clear(holder.image);
+        }
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        thumbnails.cancel(holder.image);
+    }
+
+    private void bindStock(ViewHolder holder, Item item) {
+        if (item.currentStock != -1) {
+            holder.stock.setVisibility(View.VISIBLE);
+            holder.stock.setText("Stock: " + item.currentStock);
+        } else {
+            holder.stock.setVisibility(View.GONE);
+        }
+    }
+
     private void animateButtonPress(View view) {
         ScaleAnimation scaleDown = new ScaleAnimation(
                 1.0f, 0.9f,  // X scale: from 100% to 90%
@@ -201,9 +248,50 @@ public class MainAdapter extends RecyclerView.Adapter<MainAdapter.ViewHolder> {
 
     @Override
     public int getItemCount() {
-        return items.size();
+        return differ.getCurrentList().size();
     }
 
+    private static final DiffUtil.ItemCallback<Object> DIFF_CALLBACK = new DiffUtil.ItemCallback<Object>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Object oldObj, @NonNull Object newObj) {
+            if (oldObj instanceof Category && newObj instanceof Category) {
+                return ((Category) oldObj).id == ((Category) newObj).id;
+            }
+            if (oldObj instanceof Item && newObj instanceof Item) {
+                return ((Item) oldObj).id == ((Item) newObj).id;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Object oldObj, @NonNull Object newObj) {
+            if (oldObj instanceof Category) {
+                Category oldCat = (Category) oldObj;
+                Category newCat = (Category) newObj;
+                return Objects.equals(oldCat.name, newCat.name)
+                        && Objects.equals(oldCat.picture, newCat.picture);
+            }
+            Item oldItem = (Item) oldObj;
+            Item newItem = (Item) newObj;
+            return sameTile(oldItem, newItem) && oldItem.currentStock == newItem.currentStock;
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull Object oldObj, @NonNull Object newObj) {
+            if (oldObj instanceof Item && sameTile((Item) oldObj, (Item) newObj)) {
+                return PAYLOAD_COUNTERS;
+            }
+            return null;
+        }
+
+        // Everything on an item tile except the stock line
+        private boolean sameTile(Item oldItem, Item newItem) {
+            return Objects.equals(oldItem.name, newItem.name)
+                    && Objects.equals(oldItem.picture, newItem.picture)
+                    && oldItem.basePrice == newItem.basePrice;
+        }
+    };
+
     static class ViewHolder extends RecyclerView.ViewHolder {
         ImageView image;
         TextView name, price, stock;
@@ -0,0 +1,151 @@
+package com.example.lunar_inventory;
+
+import android.app.Activity;
+import android.content.Context;
+import android.text.format.Formatter;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AlertDialog;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Finds picture files that no item or category points at any more: replaced pictures,
+// pictures of deleted rows, and leftovers of interrupted writes. ThumbnailLoader's disk cache
+// is swept along with them, since its entries outlive the pictures they were made from and
+// cannot be traced back to them. Meant to run on the
+// database writer thread, so no picture can be saved between reading the references
+// and deleting files.
+class MediaCollector {
+    private static final String TAG = "MediaCollector";
+    // A picture is ingested before its item is saved; leave recent files to that save
+    private static final long GRACE_PERIOD_MS = 60 * 60 * 1000;
+
+    static class Report {
+        public int files;
+        public long bytes;
+    }
+
+    private final File filesDir;
+    private final File thumbnailCacheDir;
+
+    MediaCollector(Context context) {
+        this.filesDir = context.getFilesDir();
+        this.thumbnailCacheDir = new File(context.getCacheDir(), ThumbnailLoader.DISK_CACHE_DIR);
+    }
+
+    // The "Clean Up Photos" drawer entry: a dry run on the writer, then the real one once the
+    // user confirms what it would free
+    static void showCleanUpDialog(Activity activity) {
+        DatabaseManager dbManager = DatabaseManager.getInstance(activity);
+        MediaCollector collector = new MediaCollector(activity);
+        dbManager.write(activity, db -> collector.collect(db, true), report -> {
+            if (report.files == 0) {
+                Toast.makeText(activity, "No unused photos to clean up", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            new AlertDialog.Builder(activity)
+                    .setTitle("Clean Up Photos")
+                    .setMessage(report.files + " unused photo file(s) take up "
+                            + Formatter.formatShortFileSize(activity, report.bytes) + ". Delete them?")
+                    .setPositiveButton("Delete", (dialog, which) ->
+                            dbManager.write(activity, db -> collector.collect(db, false), freed ->
+                                    Toast.makeText(activity, "Freed " + Formatter.formatShortFileSize(activity, freed.bytes),
+                                            Toast.LENGTH_SHORT).show()))
+                    .setNegativeButton("Cancel", null)
+                    .show();
+        });
+    }
+
+    // With dryRun set nothing is deleted, and the report says what would be freed
+    Report collect(DatabaseManager dbManager, boolean dryRun) {
+        Set<String> referenced = new HashSet<>();
+        for (String picture : dbManager.getReferencedPictures()) {
+            referenced.add(new File(picture).getAbsolutePath());
+        }
+
+        long cutoff = System.currentTimeMillis() - GRACE_PERIOD_MS;
+        Report report = new Report();
+        for (File file : candidates()) {
+            if (file.lastModified() > cutoff || isReferenced(file, referenced)) continue;
+            remove(file, dryRun, report);
+        }
+
+        // Cached thumbnails are touched whenever they are read, so only idle ones go
+        File[] cached = thumbnailCacheDir.listFiles();
+        if (cached != null) {
+            for (File file : cached) {
+                if (file.isFile() && file.lastModified() <= cutoff) {
+                    remove(file, dryRun, report);
+                }
+            }
+        }
+
+        if (!dryRun) {
+            removeEmptyShards();
+        }
+        return report;
+    }
+
+    private static void remove(File file, boolean dryRun, Report report) {
+        long length = file.length();
+        if (dryRun || file.delete()) {
+            report.files++;
+            report.bytes += length;
+        } else {
+            Log.w(TAG, "Could not delete " + file);
+        }
+    }
+
+    // A thumbnail lives exactly as long as the picture it was made from
+    private static boolean isReferenced(File file, Set<String> referenced) {
+        String path = file.getAbsolutePath();
+        if (path.endsWith(ImageIngest.THUMBNAIL_SUFFIX)) {
+            path = path.substring(0, path.length() - ImageIngest.THUMBNAIL_SUFFIX.length()) + ".jpg";
+        }
+        return referenced.contains(path);
+    }
+
+    private List<File> candidates() {
+        List<File> files = new ArrayList<>();
+
+        // Pictures saved before ingest, straight in the files directory
+        File[] legacy = filesDir.listFiles();
+        if (legacy != null) {
+            for (File file : legacy) {
+                String name = file.getName();
+                if (file.isFile() && name.endsWith(".jpg")
+                        && (name.startsWith("item_") || name.startsWith("category_"))) {
+                    files.add(file);
+                }
+            }
+        }
+
+        File[] shards = new File(filesDir, ImageIngest.MEDIA_DIR).listFiles();
+        if (shards != null) {
+            for (File shard : shards) {
+                File[] media = shard.listFiles();
+                if (media == null) continue;
+                for (File file : media) {
+                    if (file.isFile()) files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    private void removeEmptyShards() {
+        File[] shards = new File(filesDir, ImageIngest.MEDIA_DIR).listFiles();
+        if (shards == null) return;
+        for (File shard : shards) {
+            String[] left = shard.list();
+            if (shard.isDirectory() && left != null && left.length == 0) {
+                shard.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.lunar_inventory;
+
+import android.graphics.Paint;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Lays an ExportReport out on A4 pages, one page at a time. Every piece of text is measured
+// and wrapped once, from per-style character widths that are only asked of Paint the first
+// time a character shows up, and long names wrap inside their column instead of running
+// into the numbers. The layout only keeps the runs of the page in hand; what is drawn from
+// them is up to the PdfDocument it goes into.
+class PdfLayout {
+    static final int PAGE_WIDTH = 595;
+    static final int PAGE_HEIGHT = 842;
+    private static final int MARGIN = 40;
+    private static final int LINE_HEIGHT = 20;
+    private static final int INDENT = 20;
+    private static final int COLUMN_GAP = 10;
+    private static final int MIN_NAME_WIDTH = 40;
+    private static final float PRICE_X = PAGE_WIDTH - MARGIN - 250;
+    private static final float COUNT_X = PAGE_WIDTH - MARGIN - 150;
+    private static final float TOTAL_X = PAGE_WIDTH - MARGIN - 80;
+    private static final float GRAND_TOTAL_X = PAGE_WIDTH - MARGIN - 100;
+    // Lowest baseline a block may start its last line on
+    private static final float BOTTOM = PAGE_HEIGHT - MARGIN - LINE_HEIGHT * 2;
+
+    enum Style {
+        TITLE(18, true),
+        SUBTITLE(12, false),
+        CATEGORY(14, true),
+        CATEGORY_TOTAL(12, true),
+        ITEM(11, false),
+        GRAND_TOTAL(16, true);
+
+        final float size;
+        final boolean bold;
+
+        Style(float size, boolean bold) {
+            this.size = size;
+            this.bold = bold;
+        }
+    }
+
+    // A piece of text at its final position on the page
+    static class Run {
+        public final Style style;
+        public final String text;
+        public final float x, y;
+
+        Run(Style style, String text, float x, float y) {
+            this.style = style;
+            this.text = text;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    static class Page {
+        public final int number;
+        public final List<Run> runs = new ArrayList<>();
+
+        Page(int number) {
+            this.number = number;
+        }
+    }
+
+    // Runs placed relative to the block's first baseline, kept on one page
+    private static class Block {
+        final List<Run> runs = new ArrayList<>();
+        // Baseline of the last line, from the first
+        float lastLine;
+        // How far the next block starts below the first baseline
+        float advance;
+        // Room to keep free below, so a heading never ends a page
+        float keepWithNext;
+    }
+
+    // Where the walk through the category tree is; group is null for the top level
+    private static class Frame {
+        final ExportReport.Group group;
+        final int indent;
+        int child;
+        int line;
+
+        Frame(ExportReport.Group group, int indent) {
+            this.group = group;
+            this.indent = indent;
+        }
+    }
+
+    private static class Metrics {
+        final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        // Latin-1 covers nearly every name; anything else goes through the map
+        final float[] latin = new float[256];
+        final Map<Character, Float> other = new HashMap<>();
+
+        Metrics(Style style) {
+            paint.setTextSize(style.size);
+            paint.setFakeBoldText(style.bold);
+            for (int i = 0; i < latin.length; i++) {
+                latin[i] = -1;
+            }
+        }
+
+        float width(char c) {
+            if (c < latin.length) {
+                if (latin[c] < 0) latin[c] = paint.measureText(String.valueOf(c));
+                return latin[c];
+            }
+            Float width = other.get(c);
+            if (width == null) {
+                width = paint.measureText(String.valueOf(c));
+                other.put(c, width);
+            }
+            return width;
+        }
+
+        float width(String text, int start, int end) {
+            float width = 0;
+            for (int i = start; i < end; i++) {
+                width += width(text.charAt(i));
+            }
+            return width;
+        }
+    }
+
+    private final ExportReport report;
+    private final Map<Style, Metrics> metrics = new HashMap<>();
+    private final ArrayDeque<Frame> stack = new ArrayDeque<>();
+    private final StringBuilder amount = new StringBuilder();
+    private boolean headerDone, totalDone;
+    // Laid out but did not fit on the last page
+    private Block pending;
+    private int pageNumber;
+
+    PdfLayout(ExportReport report) {
+        this.report = report;
+        for (Style style : Style.values()) {
+            metrics.put(style, new Metrics(style));
+        }
+        stack.addLast(new Frame(null, -1));
+    }
+
+    // The paint text of this style is measured with; draw with it too
+    Paint getPaint(Style style) {
+        return metrics.get(style).paint;
+    }
+
+    // null once the whole report has been laid out
+    Page nextPage() {
+        Block block = pending != null ? pending : nextBlock();
+        pending = null;
+        if (block == null) return null;
+
+        Page page = new Page(++pageNumber);
+        float y = MARGIN;
+        while (block != null) {
+            // A block taller than a page gets a page of its own rather than none
+            if (!page.runs.isEmpty() && y + block.lastLine + block.keepWithNext > BOTTOM) {
+                pending = block;
+                break;
+            }
+            for (Run run : block.runs) {
+                page.runs.add(new Run(run.style, run.text, run.x, y + run.y));
+            }
+            y += block.advance;
+            block = nextBlock();
+        }
+        return page;
+    }
+
+    // The report as a flat run of blocks: a category's heading, its subcategories, its own
+    // lines, then its total; the lines without category and the grand total come last
+    private Block nextBlock() {
+        if (!headerDone) {
+            headerDone = true;
+            return header();
+        }
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peekLast();
+            List<ExportReport.Group> children = frame.group == null ? report.categories : frame.group.children;
+            if (frame.child < children.size()) {
+                ExportReport.Group group = children.get(frame.child++);
+                stack.addLast(new Frame(group, frame.indent + 1));
+                return categoryHeading(group, frame.indent + 1);
+            }
+            List<ExportReport.Line> lines = frame.group == null ? report.uncategorized : frame.group.lines;
+            if (frame.line < lines.size()) {
+                return itemLine(lines.get(frame.line++), frame.indent + 1);
+            }
+            stack.pollLast();
+            if (frame.group != null) {
+                return categoryTotal(frame.group, frame.indent);
+            }
+        }
+        if (!totalDone) {
+            totalDone = true;
+            return grandTotal();
+        }
+        return null;
+    }
+
+    private Block header() {
+        Block block = new Block();
+        centered(block, Style.TITLE, report.title, 0);
+        centered(block, Style.SUBTITLE, report.dateRange, LINE_HEIGHT);
+        block.lastLine = LINE_HEIGHT;
+        block.advance = LINE_HEIGHT * 3;
+        return block;
+    }
+
+    private Block categoryHeading(ExportReport.Group group, int indent) {
+        Block block = new Block();
+        float x = MARGIN + indent * INDENT;
+        int lines = wrap(block, Style.CATEGORY, group.name, x, PAGE_WIDTH - MARGIN - x);
+        block.lastLine = (lines - 1) * LINE_HEIGHT;
+        block.advance = lines * LINE_HEIGHT;
+        block.keepWithNext = LINE_HEIGHT;
+        return block;
+    }
+
+    private Block itemLine(ExportReport.Line line, int indent) {
+        Block block = new Block();
+        float x = MARGIN + indent * INDENT;
+        int lines = wrap(block, Style.ITEM, line.label, x, PRICE_X - COLUMN_GAP - x);
+        block.runs.add(new Run(Style.ITEM, formatAmount(line.soldPrice), PRICE_X, 0));
+        block.runs.add(new Run(Style.ITEM, String.valueOf(line.quantity), COUNT_X, 0));
+        block.runs.add(new Run(Style.ITEM, formatAmount(line.total), TOTAL_X, 0));
+        block.lastLine = (lines - 1) * LINE_HEIGHT;
+        block.advance = lines * LINE_HEIGHT;
+        return block;
+    }
+
+    private Block categoryTotal(ExportReport.Group group, int indent) {
+        Block block = new Block();
+        float x = MARGIN + indent * INDENT;
+        int lines = wrap(block, Style.CATEGORY_TOTAL, "Total " + group.name, x, COUNT_X - COLUMN_GAP - x);
+        block.runs.add(new Run(Style.CATEGORY_TOTAL, String.valueOf(group.count), COUNT_X, 0));
+        block.runs.add(new Run(Style.CATEGORY_TOTAL, formatAmount(group.total), TOTAL_X, 0));
+        block.lastLine = (lines - 1) * LINE_HEIGHT;
+        block.advance = (lines - 1) * LINE_HEIGHT + (int) (LINE_HEIGHT * 1.5f);
+        return block;
+    }
+
+    private Block grandTotal() {
+        Block block = new Block();
+        block.runs.add(new Run(Style.GRAND_TOTAL, "Sales Total", MARGIN, LINE_HEIGHT));
+        block.runs.add(new Run(Style.GRAND_TOTAL, formatAmount(report.total), GRAND_TOTAL_X, LINE_HEIGHT));
+        block.lastLine = LINE_HEIGHT;
+        block.advance = LINE_HEIGHT * 2;
+        return block;
+    }
+
+    private void centered(Block block, Style style, String text, float y) {
+        float width = metrics.get(style).width(text, 0, text.length());
+        block.runs.add(new Run(style, text, (PAGE_WIDTH - width) / 2, y));
+    }
+
+    // Breaks text into lines no wider than width, at spaces where it can and inside a word
+    // where it has to. Returns the number of lines.
+    private int wrap(Block block, Style style, String text, float x, float width) {
+        Metrics m = metrics.get(style);
+        width = Math.max(width, MIN_NAME_WIDTH);
+        int lines = 0;
+        int start = 0;
+        int length = text.length();
+        while (start < length) {
+            float lineWidth = 0;
+            int end = start;
+            int lastSpace = -1;
+            while (end < length) {
+                char c = text.charAt(end);
+                float w = m.width(c);
+                if (lineWidth + w > width && end > start) break;
+                if (c == ' ') lastSpace = end;
+                lineWidth += w;
+                end++;
+            }
+            if (end < length && lastSpace > start) {
+                end = lastSpace;
+            }
+            block.runs.add(new Run(style, text.substring(start, end), x, lines * LINE_HEIGHT));
+            lines++;
+            start = end;
+            while (start < length && text.charAt(start) == ' ') {
+                start++;
+            }
+        }
+        if (lines == 0) {
+            block.runs.add(new Run(style, "", x, 0));
+            lines = 1;
+        }
+        return lines;
+    }
+
+    private String formatAmount(double value) {
+        amount.setLength(0);
+        return ExportReport.appendAmount(amount.append('€'), value).toString();
+    }
+}
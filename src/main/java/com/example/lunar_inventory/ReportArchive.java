@@ -0,0 +1,132 @@
+package com.example.lunar_inventory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// An ExportReport as it was at export time, in a small binary file kept with the export, so
+// export history can render it again in any format without reading or parsing the CSV.
+//
+//   int     MAGIC, short version
+//   UTF     title, dateRange
+//   groups  top-level categories, each: UTF name, lines, groups (subcategories)
+//   lines   uncategorized
+//
+// where groups and lines are an int count followed by the entries, and a line is
+// UTF name, double soldPrice, double basePrice, int quantity. Labels and totals are
+// worked out again on reading, exactly as when the report was loaded.
+class ReportArchive {
+    static final String SUFFIX = ".report.gz";
+    private static final int MAGIC = 0x4C495250; // "LIRP"
+    private static final short VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Counts and nesting a snapshot can hold. Anything beyond them means the file is damaged,
+    // and is reported as an IOException so export history falls back to the CSV backup.
+    private static final int MAX_COUNT = 1_000_000;
+    private static final int MAX_DEPTH = 256;
+    // Lists are grown as entries are actually read, never sized up front from a count
+    private static final int MAX_INITIAL_CAPACITY = 256;
+
+    static void write(ExportReport report, File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            writeString(out, report.title);
+            writeString(out, report.dateRange);
+            writeGroups(out, report.categories);
+            writeLines(out, report.uncategorized);
+        }
+    }
+
+    // Closes in
+    static ExportReport read(InputStream in) throws IOException {
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE))) {
+            if (data.readInt() != MAGIC) {
+                throw new IOException("Not a report snapshot");
+            }
+            short version = data.readShort();
+            if (version > VERSION) {
+                throw new IOException("Report snapshot version " + version + " is newer than this app");
+            }
+            String title = data.readUTF();
+            String dateRange = data.readUTF();
+            List<ExportReport.Group> categories = readGroups(data, "None", 0);
+            List<ExportReport.Line> uncategorized = readLines(data);
+            return new ExportReport(title, dateRange, categories, uncategorized);
+        } catch (RuntimeException e) {
+            throw new IOException("Damaged report snapshot", e);
+        }
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_COUNT) {
+            throw new IOException("Damaged report snapshot: count " + count);
+        }
+        return count;
+    }
+
+    private static void writeGroups(DataOutputStream out, List<ExportReport.Group> groups) throws IOException {
+        out.writeInt(groups.size());
+        for (ExportReport.Group group : groups) {
+            writeString(out, group.name);
+            writeLines(out, group.lines);
+            writeGroups(out, group.children);
+        }
+    }
+
+    private static void writeLines(DataOutputStream out, List<ExportReport.Line> lines) throws IOException {
+        out.writeInt(lines.size());
+        for (ExportReport.Line line : lines) {
+            writeString(out, line.name);
+            out.writeDouble(line.soldPrice);
+            out.writeDouble(line.basePrice);
+            out.writeInt(line.quantity);
+        }
+    }
+
+    // The report has no nulls worth keeping; an empty string reads back the same in every renderer
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeUTF(value == null ? "" : value);
+    }
+
+    private static List<ExportReport.Group> readGroups(DataInputStream in, String parentName, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Damaged report snapshot: categories nested " + depth + " deep");
+        }
+        int size = readCount(in);
+        List<ExportReport.Group> groups = new ArrayList<>(Math.min(size, MAX_INITIAL_CAPACITY));
+        for (int i = 0; i < size; i++) {
+            ExportReport.Group group = new ExportReport.Group(in.readUTF(), parentName, depth);
+            for (ExportReport.Line line : readLines(in)) {
+                group.lines.add(line);
+                group.count += line.quantity;
+                group.total += line.total;
+            }
+            for (ExportReport.Group child : readGroups(in, group.name, depth + 1)) {
+                group.children.add(child);
+                group.count += child.count;
+                group.total += child.total;
+            }
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    private static List<ExportReport.Line> readLines(DataInputStream in) throws IOException {
+        int size = readCount(in);
+        List<ExportReport.Line> lines = new ArrayList<>(Math.min(size, MAX_INITIAL_CAPACITY));
+        for (int i = 0; i < size; i++) {
+            lines.add(new ExportReport.Line(in.readUTF(), in.readDouble(), in.readDouble(), in.readInt()));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.lunar_inventory;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+// Writes one export: the file the user asked for under exports/, and the CSV backup that
+// export history can fall back on, both rendered from the same report, and a snapshot of the
+// report itself. Both go into the BackupStore, which keeps identical ones only once.
+class ReportExporter {
+    private static final String TAG = "ReportExporter";
+
+    private final Context context;
+
+    ReportExporter(Context context) {
+        this.context = context;
+    }
+
+    static class Output {
+        public final File file;
+        // null when the backup or the snapshot could not be stored
+        public final String backupHash;
+        public final String snapshotHash;
+
+        Output(File file, String backupHash, String snapshotHash) {
+            this.file = file;
+            this.backupHash = backupHash;
+            this.snapshotHash = snapshotHash;
+        }
+    }
+
+    // null when the export could not be written
+    public Output export(ExportReport report, ReportRenderer renderer) {
+        File exportsDir = new File(context.getFilesDir(), "exports");
+        if (!exportsDir.exists()) {
+            exportsDir.mkdirs();
+        }
+
+        File file = new File(exportsDir, generateBaseName() + "." + renderer.getExtension());
+        try {
+            renderer.write(report, file);
+            Log.d(TAG, "Export written to: " + file.getAbsolutePath());
+        } catch (Exception e) {
+            Log.e(TAG, "Error writing " + renderer.getExtension() + " export", e);
+            file.delete();
+            return null;
+        }
+
+        return new Output(file, storeBackup(report, renderer instanceof CsvExporter ? file : null),
+                storeSnapshot(report));
+    }
+
+    // What export history renders re-exports from
+    private String storeSnapshot(ExportReport report) {
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("report_", ".bin", context.getCacheDir());
+            ReportArchive.write(report, tmp);
+            String hash = new BackupStore(context).put(tmp, ReportArchive.SUFFIX);
+            Log.d(TAG, "Snapshot stored as " + hash);
+            return hash;
+        } catch (Exception e) {
+            Log.e(TAG, "Error storing report snapshot", e);
+            return null;
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    // A CSV export is its own backup; anything else gets the CSV rendered next to it first
+    private String storeBackup(ExportReport report, File csv) {
+        File tmp = null;
+        try {
+            if (csv == null) {
+                tmp = File.createTempFile("backup_", ".csv", context.getCacheDir());
+                new CsvExporter().write(report, tmp);
+                csv = tmp;
+            }
+            String hash = new BackupStore(context).put(csv);
+            Log.d(TAG, "Backup stored as " + hash);
+            return hash;
+        } catch (Exception e) {
+            Log.e(TAG, "Error storing backup", e);
+            return null;
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private String generateBaseName() {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault());
+        return "export_" + sdf.format(new Date());
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.lunar_inventory;
+
+import java.io.File;
+import java.io.IOException;
+
+// Turns an ExportReport into one file format. Renderers never touch the database.
+interface ReportRenderer {
+    // Without the dot, e.g. "csv"
+    String getExtension();
+
+    void write(ExportReport report, File file) throws IOException;
+}
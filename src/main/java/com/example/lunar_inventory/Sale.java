@@ -3,12 +3,12 @@ package com.example.lunar_inventory;
 class Sale {
     public int id;
     public double soldPrice;
-    public String saleTime;
+    public long saleTime;
     public int exportId;
     public int itemId;
     public String itemName;
 
-    public Sale(int id, double soldPrice, String saleTime, int exportId, int itemId, String itemName) {
+    public Sale(int id, double soldPrice, long saleTime, int exportId, int itemId, String itemName) {
         this.id = id;
         this.soldPrice = soldPrice;
         this.saleTime = saleTime;
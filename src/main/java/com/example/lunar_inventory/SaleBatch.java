@@ -0,0 +1,14 @@
+package com.example.lunar_inventory;
+
+class SaleBatch {
+    public int id;
+    public String name;
+    // Sales in the batch and what they brought in, within the current history filter
+    public int saleCount;
+    public double revenue;
+
+    public SaleBatch(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+}
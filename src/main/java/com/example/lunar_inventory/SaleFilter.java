@@ -0,0 +1,26 @@
+package com.example.lunar_inventory;
+
+// What the sale history is narrowed down to; null fields do not filter
+class SaleFilter {
+    // Local time window, from inclusive, to exclusive, in epoch milliseconds
+    public Long fromMs;
+    public Long toMs;
+    public Integer batchId;
+    public Integer itemId;
+    // The category and everything below it
+    public Integer categoryId;
+
+    public SaleFilter copy() {
+        SaleFilter copy = new SaleFilter();
+        copy.fromMs = fromMs;
+        copy.toMs = toMs;
+        copy.batchId = batchId;
+        copy.itemId = itemId;
+        copy.categoryId = categoryId;
+        return copy;
+    }
+
+    public boolean isEmpty() {
+        return fromMs == null && toMs == null && batchId == null && itemId == null && categoryId == null;
+    }
+}
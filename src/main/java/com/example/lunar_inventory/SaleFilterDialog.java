@@ -0,0 +1,234 @@
+package com.example.lunar_inventory;
+
+import android.app.DatePickerDialog;
+import android.content.Context;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.Spinner;
+
+import androidx.appcompat.app.AlertDialog;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+// Lets the cashier narrow the sale history to a date range, a batch, a category subtree and
+// an item. Items are limited to the chosen category, and both lists can be searched by name.
+class SaleFilterDialog {
+    public interface Listener {
+        void onApply(SaleFilter filter, String summary);
+    }
+
+    // Everything the dialog offers, loaded in one read before it opens
+    static class Choices {
+        final List<SaleBatch> batches;
+        final CategoryTree categories;
+        final List<Item> items;
+
+        Choices(List<SaleBatch> batches, CategoryTree categories, List<Item> items) {
+            this.batches = batches;
+            this.categories = categories;
+            this.items = items;
+        }
+    }
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private final Context context;
+    private final Choices choices;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
+
+    private Button fromButton, toButton;
+    private Spinner batchSpinner, itemSpinner;
+    private CategoryPicker categoryPicker;
+    private Long fromMs, toMs;
+    // Items the item spinner lists, after "Any item"
+    private List<Item> shownItems = new ArrayList<>();
+    private String itemQuery = "";
+
+    SaleFilterDialog(Context context, Choices choices) {
+        this.context = context;
+        this.choices = choices;
+    }
+
+    void show(SaleFilter current, Listener listener) {
+        View view = LayoutInflater.from(context).inflate(R.layout.dialog_sale_filter, null, false);
+        fromButton = view.findViewById(R.id.filter_from_button);
+        toButton = view.findViewById(R.id.filter_to_button);
+        batchSpinner = view.findViewById(R.id.filter_batch_spinner);
+        itemSpinner = view.findViewById(R.id.filter_item_spinner);
+        Spinner categorySpinner = view.findViewById(R.id.filter_category_spinner);
+        EditText itemInput = view.findViewById(R.id.filter_item_input);
+        categoryPicker = new CategoryPicker(context, categorySpinner,
+                view.findViewById(R.id.filter_category_input), "Any category");
+
+        fromMs = current.fromMs;
+        toMs = current.toMs;
+        updateDateButtons();
+        fromButton.setOnClickListener(v -> pickDate(true));
+        toButton.setOnClickListener(v -> pickDate(false));
+
+        List<String> batchNames = new ArrayList<>();
+        batchNames.add("Any batch");
+        int batchPosition = 0;
+        for (SaleBatch batch : choices.batches) {
+            batchNames.add(batch.name);
+            if (current.batchId != null && batch.id == current.batchId) {
+                batchPosition = batchNames.size() - 1;
+            }
+        }
+        ArrayAdapter<String> batchAdapter = new ArrayAdapter<>(context,
+                android.R.layout.simple_spinner_item, batchNames);
+        batchAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        batchSpinner.setAdapter(batchAdapter);
+        batchSpinner.setSelection(batchPosition);
+
+        categoryPicker.setChoices(choices.categories.getNodes(), current.categoryId);
+        showItems(current.itemId);
+
+        // Picking a category limits the items to the ones inside it
+        categorySpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View v, int position, long id) {
+                showItems(getSelectedItemId());
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        });
+        itemInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                itemQuery = s.toString().trim().toLowerCase(Locale.getDefault());
+                showItems(getSelectedItemId());
+            }
+        });
+
+        new AlertDialog.Builder(context)
+                .setTitle("Filter Sales")
+                .setView(view)
+                .setPositiveButton("Apply", (dialog, which) -> {
+                    SaleFilter filter = buildFilter();
+                    listener.onApply(filter, describe(filter));
+                })
+                .setNeutralButton("Clear", (dialog, which) -> listener.onApply(new SaleFilter(), "All sales"))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private void pickDate(boolean from) {
+        Calendar calendar = Calendar.getInstance();
+        Long current = from ? fromMs : (toMs == null ? null : toMs - DAY_MS);
+        if (current != null) calendar.setTimeInMillis(current);
+
+        new DatePickerDialog(context, (picker, year, month, day) -> {
+            Calendar start = Calendar.getInstance();
+            start.clear();
+            start.set(year, month, day);
+            if (from) {
+                fromMs = start.getTimeInMillis();
+            } else {
+                // Up to the end of the chosen day
+                start.add(Calendar.DAY_OF_MONTH, 1);
+                toMs = start.getTimeInMillis();
+            }
+            updateDateButtons();
+        }, calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH), calendar.get(Calendar.DAY_OF_MONTH)).show();
+    }
+
+    private void updateDateButtons() {
+        fromButton.setText("From: " + (fromMs == null ? "any" : dateFormat.format(new Date(fromMs))));
+        toButton.setText("To: " + (toMs == null ? "any" : dateFormat.format(new Date(toMs - DAY_MS))));
+    }
+
+    private void showItems(Integer selectedId) {
+        Integer categoryId = categoryPicker.getSelectedCategoryId();
+        List<Item> items = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        names.add("Any item");
+
+        int selectedPosition = 0;
+        for (Item item : choices.items) {
+            boolean selected = selectedId != null && item.id == selectedId;
+            if (!selected) {
+                if (categoryId != null && (item.categoryId == null
+                        || !choices.categories.isInSubtree(item.categoryId, categoryId))) continue;
+                if (!itemQuery.isEmpty() && !item.name.toLowerCase(Locale.getDefault()).contains(itemQuery)) continue;
+            }
+
+            items.add(item);
+            names.add(item.name);
+            if (selected) {
+                selectedPosition = names.size() - 1;
+            }
+        }
+        shownItems = items;
+
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(context,
+                android.R.layout.simple_spinner_item, names);
+        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        itemSpinner.setAdapter(adapter);
+        itemSpinner.setSelection(selectedPosition);
+    }
+
+    private Integer getSelectedItemId() {
+        int position = itemSpinner.getSelectedItemPosition();
+        if (position <= 0 || position > shownItems.size()) return null;
+        return shownItems.get(position - 1).id;
+    }
+
+    private SaleFilter buildFilter() {
+        SaleFilter filter = new SaleFilter();
+        filter.fromMs = fromMs;
+        filter.toMs = toMs;
+        int batchPosition = batchSpinner.getSelectedItemPosition();
+        if (batchPosition > 0) {
+            filter.batchId = choices.batches.get(batchPosition - 1).id;
+        }
+        filter.categoryId = categoryPicker.getSelectedCategoryId();
+        filter.itemId = getSelectedItemId();
+        return filter;
+    }
+
+    private String describe(SaleFilter filter) {
+        if (filter.isEmpty()) return "All sales";
+
+        List<String> parts = new ArrayList<>();
+        if (filter.fromMs != null || filter.toMs != null) {
+            parts.add((filter.fromMs == null ? "…" : dateFormat.format(new Date(filter.fromMs))) + " – "
+                    + (filter.toMs == null ? "…" : dateFormat.format(new Date(filter.toMs - DAY_MS))));
+        }
+        if (filter.batchId != null) {
+            parts.add(choices.batches.get(batchSpinner.getSelectedItemPosition() - 1).name);
+        }
+        if (filter.categoryId != null) {
+            CategoryTree.Node node = choices.categories.getNode(filter.categoryId);
+            if (node != null) parts.add(node.category.name);
+        }
+        if (filter.itemId != null) {
+            parts.add(shownItems.get(itemSpinner.getSelectedItemPosition() - 1).name);
+        }
+
+        StringBuilder summary = new StringBuilder();
+        for (String part : parts) {
+            if (summary.length() > 0) summary.append(" · ");
+            summary.append(part);
+        }
+        return summary.toString();
+    }
+}
@@ -5,14 +5,17 @@ class SaleGroup {
     public String itemName;
     public Integer categoryId;
     public double soldPrice;
+    // The item's current price, to label discounts against
+    public double basePrice;
     public int quantity;
     public double total;
 
-    public SaleGroup(int itemId, String itemName, Integer categoryId, double soldPrice, int quantity) {
+    public SaleGroup(int itemId, String itemName, Integer categoryId, double soldPrice, double basePrice, int quantity) {
         this.itemId = itemId;
         this.itemName = itemName;
         this.categoryId = categoryId;
         this.soldPrice = soldPrice;
+        this.basePrice = basePrice;
         this.quantity = quantity;
         this.total = soldPrice * quantity;
     }
@@ -5,6 +5,8 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.ActionBarDrawerToggle;
@@ -21,17 +23,25 @@ import com.google.android.material.navigation.NavigationView;
 import java.util.List;
 
 public class SaleHistoryActivity extends AppCompatActivity implements NavigationView.OnNavigationItemSelectedListener {
+    private static final int PAGE_SIZE = 50;
+
     private DrawerLayout drawerLayout;
     private RecyclerView recyclerView;
     private SaleHistoryAdapter adapter;
+    private TextView filterSummary;
+    private Button clearFilterButton;
     private DatabaseManager dbManager;
+    private SaleFilter filter = new SaleFilter();
+    private final ChangeBus.Listener changeListener = this::onDataChanged;
+    // Bumped on every reload, so pages asked for before it are dropped
+    private int generation;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_sale_history);
 
-        dbManager = new DatabaseManager(this);
+        dbManager = DatabaseManager.getInstance(this);
 
         Toolbar toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -54,22 +64,155 @@ public class SaleHistoryActivity extends AppCompatActivity implements Navigation
         drawerLayout.addDrawerListener(toggle);
         toggle.syncState();
 
+        filterSummary = findViewById(R.id.sale_filter_summary);
+        clearFilterButton = findViewById(R.id.sale_filter_clear_button);
+        findViewById(R.id.sale_filter_button).setOnClickListener(v -> showFilterDialog());
+        clearFilterButton.setOnClickListener(v -> applyFilter(new SaleFilter(), "All sales"));
+
         recyclerView = findViewById(R.id.sale_history_recycler);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        adapter = new SaleHistoryAdapter(this, dbManager, this::loadNextPage);
+        recyclerView.setAdapter(adapter);
 
-        loadSales();
+        dbManager.subscribe(changeListener);
+        reloadSales();
     }
 
-    private void loadSales() {
-        List<Sale> sales = dbManager.getAllSales();
-        if (adapter == null) {
-            adapter = new SaleHistoryAdapter(this, sales, dbManager, this::loadSales);
-            recyclerView.setAdapter(adapter);
-        } else {
-            adapter.updateData(sales);
+    // Only rows that are loaded are touched, plus the batch totals; nothing reloads the whole
+    // list except a reset
+    private void onDataChanged(List<DataChange> changes) {
+        boolean totalsChanged = false;
+        boolean newSales = false;
+        for (DataChange change : changes) {
+            switch (change.type) {
+                case SALES_RESET:
+                    reloadSales();
+                    return;
+                case SALE:
+                    refreshSale(change.id);
+                    totalsChanged = true;
+                    break;
+                case ITEM:
+                    // Item edits can rename the rows shown here
+                    refreshItemName(change.id);
+                    break;
+                case ITEM_COUNTERS:
+                    newSales = true;
+                    totalsChanged = true;
+                    break;
+                case BATCH_ROLLED:
+                    // Shows up as a new, expanded section on top
+                    totalsChanged = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (totalsChanged) {
+            loadBatches();
+        }
+        if (newSales) {
+            loadNewerSales();
         }
     }
 
+    private void showFilterDialog() {
+        dbManager.read(this, db -> new SaleFilterDialog.Choices(
+                        db.getBatches(), db.getCategoryTree(), db.getAllItems(true)),
+                choices -> new SaleFilterDialog(this, choices).show(filter, this::applyFilter));
+    }
+
+    private void applyFilter(SaleFilter newFilter, String summary) {
+        filter = newFilter;
+        filterSummary.setText(summary);
+        clearFilterButton.setVisibility(newFilter.isEmpty() ? View.GONE : View.VISIBLE);
+        reloadSales();
+    }
+
+    private void reloadSales() {
+        generation++;
+        adapter.clear();
+        loadBatches();
+    }
+
+    // Batch totals come from a single grouped query; sales are only read for open sections
+    private void loadBatches() {
+        int batchGeneration = generation;
+        SaleFilter batchFilter = filter;
+        dbManager.read(this, db -> db.getBatchSummaries(batchFilter), batches -> {
+            if (batchGeneration == generation) adapter.setBatches(batches);
+        });
+    }
+
+    private void loadNextPage(SaleHistoryAdapter.Section section) {
+        int pageGeneration = generation;
+        SaleFilter pageFilter = forSection(section);
+        Sale last = section.sales.isEmpty() ? null : section.sales.get(section.sales.size() - 1);
+        dbManager.read(this, db -> db.getSalesPage(pageFilter, last, PAGE_SIZE), page -> {
+            if (pageGeneration != generation || !adapter.contains(section)) return;
+            adapter.appendPage(section, page, page.size() < PAGE_SIZE);
+            if (section.newerPending) {
+                section.newerPending = false;
+                loadNewerSales();
+            }
+        });
+    }
+
+    // New sales always land on top of the newest batch; a burst larger than a page is simpler
+    // to load again from the top
+    private void loadNewerSales() {
+        SaleHistoryAdapter.Section section = adapter.getNewestSection();
+        if (section == null) return;
+        if (!section.expanded) {
+            // Whatever it loaded is out of date; it starts over when opened
+            if (!section.sales.isEmpty()) adapter.resetSection(section);
+            return;
+        }
+
+        if (section.sales.isEmpty()) {
+            if (section.loading) {
+                section.newerPending = true;
+            } else {
+                adapter.resetSection(section);
+            }
+            return;
+        }
+
+        int pageGeneration = generation;
+        SaleFilter pageFilter = forSection(section);
+        Sale first = section.sales.get(0);
+        dbManager.read(this, db -> db.getSalesNewerThan(pageFilter, first, PAGE_SIZE), newer -> {
+            if (pageGeneration != generation || !adapter.contains(section)) return;
+            if (section.sales.isEmpty() || section.sales.get(0) != first) {
+                // Another refresh got there first; look again from the new top
+                loadNewerSales();
+            } else if (newer.size() >= PAGE_SIZE) {
+                adapter.resetSection(section);
+            } else if (!newer.isEmpty()) {
+                adapter.prepend(section, newer);
+            }
+        });
+    }
+
+    private SaleFilter forSection(SaleHistoryAdapter.Section section) {
+        SaleFilter sectionFilter = filter.copy();
+        sectionFilter.batchId = section.batch.id;
+        return sectionFilter;
+    }
+
+    private void refreshSale(int saleId) {
+        int pageGeneration = generation;
+        dbManager.read(this, db -> db.getSale(saleId), sale -> {
+            if (pageGeneration == generation) adapter.updateSale(saleId, sale);
+        });
+    }
+
+    private void refreshItemName(int itemId) {
+        dbManager.read(this, db -> db.getItem(itemId), item -> {
+            if (item != null) adapter.renameItem(itemId, item.name);
+        });
+    }
+
     @Override
     public boolean onNavigationItemSelected(MenuItem item) {
         int id = item.getItemId();
@@ -93,6 +236,8 @@ public class SaleHistoryActivity extends AppCompatActivity implements Navigation
         } else if (id == R.id.nav_export_history) {
             Intent intent = new Intent(this, ExportHistoryActivity.class);
             startActivity(intent);
+        } else if (id == R.id.nav_clean_photos) {
+            MediaCollector.showCleanUpDialog(this);
         } else if (id == R.id.nav_reset_sales) {
             showResetSalesDialog();
         }
@@ -105,19 +250,24 @@ public class SaleHistoryActivity extends AppCompatActivity implements Navigation
         new AlertDialog.Builder(this)
                 .setTitle("Reset All Sales")
                 .setMessage("Are you sure you want to delete all sales? This will reset all sales records and item counters. This action cannot be undone.")
-                .setPositiveButton("Yes, Reset", (dialog, which) -> {
-                    boolean success = dbManager.resetAllSales();
-                    if (success) {
-                        Toast.makeText(this, "All sales have been reset", Toast.LENGTH_SHORT).show();
-                        loadSales();
-                    } else {
-                        Toast.makeText(this, "Failed to reset sales", Toast.LENGTH_SHORT).show();
-                    }
-                })
+                .setPositiveButton("Yes, Reset", (dialog, which) ->
+                        dbManager.write(this, DatabaseManager::resetAllSales, success -> {
+                            if (success) {
+                                Toast.makeText(this, "All sales have been reset", Toast.LENGTH_SHORT).show();
+                            } else {
+                                Toast.makeText(this, "Failed to reset sales", Toast.LENGTH_SHORT).show();
+                            }
+                        }))
                 .setNegativeButton("Cancel", null)
                 .show();
     }
 
+    @Override
+    protected void onDestroy() {
+        dbManager.unsubscribe(changeListener);
+        super.onDestroy();
+    }
+
     @Override
     public void onBackPressed() {
         if (drawerLayout.isDrawerOpen(GravityCompat.START)) {
@@ -126,10 +276,4 @@ public class SaleHistoryActivity extends AppCompatActivity implements Navigation
             super.onBackPressed();
         }
     }
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        dbManager.close();
-    }
 }
\ No newline at end of file
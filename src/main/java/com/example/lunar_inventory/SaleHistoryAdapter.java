@@ -1,5 +1,6 @@
 package com.example.lunar_inventory;
 
+import android.app.Activity;
 import android.content.Context;
 import android.text.InputType;
 import android.view.LayoutInflater;
@@ -14,43 +15,298 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
-public class SaleHistoryAdapter extends RecyclerView.Adapter<SaleHistoryAdapter.ViewHolder> {
-    private Context context;
-    private List<Sale> sales;
-    private DatabaseManager dbManager;
-    private OnDataChangedListener listener;
+// Sale history grouped by batch. Each batch is a header showing its totals; a batch's sales
+// are only asked for once it is expanded, a page at a time, when its footer scrolls into view.
+public class SaleHistoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+    private static final int TYPE_HEADER = 0;
+    private static final int TYPE_SALE = 1;
+    private static final int TYPE_FOOTER = 2;
+
+    public interface SectionListener {
+        // The section's footer is showing; load its next page and hand it to appendPage()
+        void onLoadPage(Section section);
+    }
+
+    static class Section {
+        SaleBatch batch;
+        boolean expanded;
+        // Loaded so far, newest first
+        final List<Sale> sales = new ArrayList<>();
+        boolean loading;
+        boolean endReached;
+        // New sales came in while the first page was loading
+        boolean newerPending;
+        final Object footer = new Object();
 
-    public interface OnDataChangedListener {
-        void onDataChanged();
+        Section(SaleBatch batch, boolean expanded) {
+            this.batch = batch;
+            this.expanded = expanded;
+        }
     }
 
-    public SaleHistoryAdapter(Context context, List<Sale> sales, DatabaseManager dbManager, OnDataChangedListener listener) {
+    private Context context;
+    private DatabaseManager dbManager;
+    private final SectionListener sectionListener;
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+    // Newest batch first
+    private final List<Section> sections = new ArrayList<>();
+    // Headers, sales and footers as laid out on screen
+    private final List<Object> rows = new ArrayList<>();
+
+    public SaleHistoryAdapter(Context context, DatabaseManager dbManager, SectionListener sectionListener) {
         this.context = context;
-        this.sales = sales;
         this.dbManager = dbManager;
-        this.listener = listener;
+        this.sectionListener = sectionListener;
+        setHasStableIds(true);
+    }
+
+    public void clear() {
+        sections.clear();
+        refreshRows();
+    }
+
+    // Takes fresh totals for every batch, keeping what each section already loaded and whether
+    // it is open. Only the newest batch, where sales are being recorded, starts out expanded.
+    public void setBatches(List<SaleBatch> batches) {
+        Map<Integer, Section> existing = new HashMap<>();
+        for (Section section : sections) {
+            existing.put(section.batch.id, section);
+        }
+
+        sections.clear();
+        for (int i = 0; i < batches.size(); i++) {
+            SaleBatch batch = batches.get(i);
+            // Older batches with nothing to show are left out
+            if (i > 0 && batch.saleCount == 0) continue;
+
+            Section section = existing.get(batch.id);
+            if (section == null) {
+                section = new Section(batch, i == 0);
+            } else {
+                section.batch = batch;
+            }
+            sections.add(section);
+        }
+        refreshRows();
+    }
+
+    public Section getNewestSection() {
+        return sections.isEmpty() ? null : sections.get(0);
+    }
+
+    public boolean contains(Section section) {
+        return sections.contains(section);
+    }
+
+    public void appendPage(Section section, List<Sale> page, boolean endReached) {
+        int start = firstRowOf(section) + section.sales.size();
+        boolean hadFooter = hasFooter(section);
+        section.loading = false;
+        section.endReached = endReached;
+        section.sales.addAll(page);
+        if (!isShowing(section)) return;
+
+        // The page goes in above the footer, which then stays or goes
+        rows.addAll(start, page);
+        notifyItemRangeInserted(start, page.size());
+        int footerPosition = start + page.size();
+        if (hadFooter && !hasFooter(section)) {
+            rows.remove(footerPosition);
+            notifyItemRemoved(footerPosition);
+        } else if (!hadFooter && hasFooter(section)) {
+            rows.add(footerPosition, section.footer);
+            notifyItemInserted(footerPosition);
+        }
+    }
+
+    public void prepend(Section section, List<Sale> newer) {
+        section.sales.addAll(0, newer);
+        if (!isShowing(section)) return;
+
+        int start = firstRowOf(section);
+        rows.addAll(start, newer);
+        notifyItemRangeInserted(start, newer.size());
+    }
+
+    // Forgets what the section loaded; it loads again from the top when next shown
+    public void resetSection(Section section) {
+        removeBody(section);
+        section.sales.clear();
+        section.loading = false;
+        section.endReached = false;
+        section.newerPending = false;
+        insertBody(section);
+    }
+
+    private void toggle(Section section) {
+        int header = rows.indexOf(section);
+        if (header < 0) return;
+
+        if (section.expanded) {
+            removeBody(section);
+            section.expanded = false;
+        } else {
+            section.expanded = true;
+            insertBody(section);
+        }
+        notifyItemChanged(header);
+    }
+
+    // Sales and footer of an expanded section that is in the list
+    private boolean isShowing(Section section) {
+        return section.expanded && rows.contains(section);
+    }
+
+    private boolean hasFooter(Section section) {
+        return section.expanded && !section.endReached;
+    }
+
+    // Position of the row just below the section's header
+    private int firstRowOf(Section section) {
+        return rows.indexOf(section) + 1;
+    }
+
+    private void removeBody(Section section) {
+        if (!isShowing(section)) return;
+        int start = firstRowOf(section);
+        int count = section.sales.size() + (hasFooter(section) ? 1 : 0);
+        rows.subList(start, start + count).clear();
+        notifyItemRangeRemoved(start, count);
     }
 
-    public void updateData(List<Sale> newSales) {
-        this.sales = newSales;
+    private void insertBody(Section section) {
+        if (!isShowing(section)) return;
+        int start = firstRowOf(section);
+        List<Object> body = new ArrayList<>(section.sales);
+        if (hasFooter(section)) {
+            body.add(section.footer);
+        }
+        rows.addAll(start, body);
+        notifyItemRangeInserted(start, body.size());
+    }
+
+    // Swaps in a fresh copy of one loaded sale, or drops it when it was deleted
+    public void updateSale(int saleId, Sale sale) {
+        for (Section section : sections) {
+            for (int i = 0; i < section.sales.size(); i++) {
+                if (section.sales.get(i).id != saleId) continue;
+
+                // -1 while the section is collapsed; the row is rebuilt from sales on expanding
+                int position = rows.indexOf(section.sales.get(i));
+                if (sale == null) {
+                    section.sales.remove(i);
+                    if (position >= 0) {
+                        rows.remove(position);
+                        notifyItemRemoved(position);
+                    }
+                } else {
+                    section.sales.set(i, sale);
+                    if (position >= 0) {
+                        rows.set(position, sale);
+                        notifyItemChanged(position);
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    public void renameItem(int itemId, String name) {
+        for (int i = 0; i < rows.size(); i++) {
+            Object row = rows.get(i);
+            if (row instanceof Sale && ((Sale) row).itemId == itemId && !name.equals(((Sale) row).itemName)) {
+                ((Sale) row).itemName = name;
+                notifyItemChanged(i);
+            }
+        }
+    }
+
+    // Lays out every row again; for when the batches themselves change
+    private void refreshRows() {
+        rows.clear();
+        for (Section section : sections) {
+            rows.add(section);
+            if (!section.expanded) continue;
+            rows.addAll(section.sales);
+            if (!section.endReached) {
+                rows.add(section.footer);
+            }
+        }
         notifyDataSetChanged();
     }
 
+    private Section sectionOfFooter(Object footer) {
+        for (Section section : sections) {
+            if (section.footer == footer) return section;
+        }
+        return null;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        Object row = rows.get(position);
+        if (row instanceof Section) return TYPE_HEADER;
+        if (row instanceof Sale) return TYPE_SALE;
+        return TYPE_FOOTER;
+    }
+
+    // Sale ids are positive; headers and footers take the negative ids of their batch
+    @Override
+    public long getItemId(int position) {
+        Object row = rows.get(position);
+        if (row instanceof Sale) return ((Sale) row).id;
+        if (row instanceof Section) return -2L * ((Section) row).batch.id;
+        return -2L * sectionOfFooter(row).batch.id - 1;
+    }
+
     @NonNull
     @Override
-    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
-        View view = LayoutInflater.from(context).inflate(R.layout.sale_item, parent, false);
-        return new ViewHolder(view);
+    public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        LayoutInflater inflater = LayoutInflater.from(context);
+        if (viewType == TYPE_HEADER) {
+            return new HeaderHolder(inflater.inflate(R.layout.sale_batch_header, parent, false));
+        }
+        if (viewType == TYPE_FOOTER) {
+            return new FooterHolder(inflater.inflate(R.layout.sale_section_footer, parent, false));
+        }
+        return new ViewHolder(inflater.inflate(R.layout.sale_item, parent, false));
     }
 
     @Override
-    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        Sale sale = sales.get(position);
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
+        Object row = rows.get(position);
+        if (holder instanceof HeaderHolder) {
+            bindHeader((HeaderHolder) holder, (Section) row);
+        } else if (holder instanceof FooterHolder) {
+            Section section = sectionOfFooter(row);
+            if (section != null && !section.loading) {
+                section.loading = true;
+                sectionListener.onLoadPage(section);
+            }
+        } else {
+            bindSale((ViewHolder) holder, (Sale) row);
+        }
+    }
 
+    private void bindHeader(HeaderHolder holder, Section section) {
+        holder.indicator.setText(section.expanded ? "▼" : "▶");
+        holder.name.setText(section.batch.name);
+        holder.summary.setText(section.batch.saleCount + " sale(s) · "
+                + String.format("€%.2f", section.batch.revenue));
+        holder.itemView.setOnClickListener(v -> toggle(section));
+    }
+
+    private void bindSale(ViewHolder holder, Sale sale) {
         holder.itemName.setText(sale.itemName);
-        holder.saleTime.setText(sale.saleTime);
+        holder.saleTime.setText(timeFormat.format(new Date(sale.saleTime)));
         holder.salePrice.setText(String.format("€%.2f", sale.soldPrice));
 
         holder.editButton.setOnClickListener(v -> showEditDialog(sale));
@@ -69,8 +325,10 @@ public class SaleHistoryAdapter extends RecyclerView.Adapter<SaleHistoryAdapter.
         builder.setPositiveButton("Save", (dialog, which) -> {
             try {
                 double newPrice = Double.parseDouble(input.getText().toString());
-                dbManager.updateSalePrice(sale.id, newPrice);
-                if (listener != null) listener.onDataChanged();
+                // The row is patched when the change is published
+                dbManager.write(owner(), db -> db.updateSalePrice(sale.id, newPrice), updated -> {
+                    if (!updated) showFailure("Failed to update sale");
+                }, e -> showFailure("Failed to update sale"));
             } catch (NumberFormatException e) {
                 Toast.makeText(context, "Invalid price", Toast.LENGTH_SHORT).show();
             }
@@ -84,17 +342,25 @@ public class SaleHistoryAdapter extends RecyclerView.Adapter<SaleHistoryAdapter.
         new AlertDialog.Builder(context)
                 .setTitle("Delete Sale")
                 .setMessage("Are you sure you want to delete this sale?")
-                .setPositiveButton("Delete", (dialog, which) -> {
-                    dbManager.deleteSale(sale.id, sale.itemId);
-                    if (listener != null) listener.onDataChanged();
-                })
+                .setPositiveButton("Delete", (dialog, which) ->
+                        dbManager.write(owner(), db -> db.deleteSale(sale.id), deleted -> {
+                            if (!deleted) showFailure("Failed to delete sale");
+                        }, e -> showFailure("Failed to delete sale")))
                 .setNegativeButton("Cancel", null)
                 .show();
     }
 
+    private void showFailure(String message) {
+        Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
+    }
+
+    private Activity owner() {
+        return context instanceof Activity ? (Activity) context : null;
+    }
+
     @Override
     public int getItemCount() {
-        return sales.size();
+        return rows.size();
     }
 
     static class ViewHolder extends RecyclerView.ViewHolder {
@@ -110,4 +376,21 @@ public class SaleHistoryAdapter extends RecyclerView.Adapter<SaleHistoryAdapter.
             deleteButton = itemView.findViewById(R.id.delete_sale_button);
         }
     }
-}
\ No newline at end of file
+
+    static class HeaderHolder extends RecyclerView.ViewHolder {
+        TextView indicator, name, summary;
+
+        HeaderHolder(View itemView) {
+            super(itemView);
+            indicator = itemView.findViewById(R.id.batch_expand_indicator);
+            name = itemView.findViewById(R.id.batch_name);
+            summary = itemView.findViewById(R.id.batch_summary);
+        }
+    }
+
+    static class FooterHolder extends RecyclerView.ViewHolder {
+        FooterHolder(View itemView) {
+            super(itemView);
+        }
+    }
+}
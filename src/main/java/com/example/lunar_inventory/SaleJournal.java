@@ -0,0 +1,208 @@
+package com.example.lunar_inventory;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Write-behind log for sale taps. A tap is one small sequential append; a background
+// writer then moves everything queued so far into the database in a single transaction.
+// Entries that never made it (crash, killed process) are replayed on the next start.
+class SaleJournal {
+    private static final String TAG = "SaleJournal";
+    // seq, item id, price, tap time, then a CRC32 of those 28 bytes
+    static final int ENTRY_SIZE = 8 + 4 + 8 + 8 + 4;
+    // A failed flush is retried after this, doubling up to the max while it keeps failing
+    private static final long FIRST_RETRY_MS = 500;
+    private static final long MAX_RETRY_MS = 30_000;
+
+    static class Entry {
+        final long seq;
+        final int itemId;
+        final double soldPrice;
+        final long saleTime;
+
+        Entry(long seq, int itemId, double soldPrice, long saleTime) {
+            this.seq = seq;
+            this.itemId = itemId;
+            this.soldPrice = soldPrice;
+            this.saleTime = saleTime;
+        }
+    }
+
+    // Where journaled sales end up: SaleRecorder, which also keeps the checkpoint
+    interface Sink {
+        // seq of the last entry already in the database
+        long getJournalCheckpoint();
+
+        // All entries and the new checkpoint in one transaction
+        void recordAll(List<Entry> entries);
+    }
+
+    private final FileChannel channel;
+    private final Sink recorder;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+    private final ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    // Appended but not yet committed to the database, in seq order
+    private final List<Entry> pending = new ArrayList<>();
+    private long lastSeq;
+    private boolean flushScheduled;
+    private long retryDelayMs = FIRST_RETRY_MS;
+
+    SaleJournal(File file, Sink recorder) throws IOException {
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.recorder = recorder;
+    }
+
+    // Must run once, before the first append
+    synchronized void recover() throws IOException {
+        long checkpoint = recorder.getJournalCheckpoint();
+        long maxSeq = checkpoint;
+        List<Entry> unflushed = new ArrayList<>();
+
+        ByteBuffer in = ByteBuffer.allocate(ENTRY_SIZE);
+        channel.position(0);
+        while (true) {
+            in.clear();
+            while (in.hasRemaining() && channel.read(in) != -1) {
+                // keep reading until the entry is complete or the file ends
+            }
+            if (in.hasRemaining()) break; // torn write at the tail
+            in.flip();
+
+            Entry entry = decode(in, crc);
+            if (entry == null) break; // corrupt entry, nothing after it can be trusted
+            if (entry.seq > checkpoint) {
+                unflushed.add(entry);
+            }
+            maxSeq = Math.max(maxSeq, entry.seq);
+        }
+
+        if (!unflushed.isEmpty()) {
+            recorder.recordAll(unflushed);
+            Log.i(TAG, "Replayed " + unflushed.size() + " sale(s) from journal");
+        }
+
+        lastSeq = maxSeq;
+        channel.truncate(0);
+    }
+
+    synchronized void append(int itemId, double soldPrice) {
+        Entry entry = new Entry(++lastSeq, itemId, soldPrice, System.currentTimeMillis());
+        long start = -1;
+        try {
+            start = channel.position();
+            encode(entry, buffer, crc);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            // Still queued behind the pending entries, so sales reach the table in tap order;
+            // only this one is lost if the process dies before the next flush
+            Log.e(TAG, "Failed to append to journal, queueing sale without it", e);
+            discardPartialWrite(start);
+        }
+
+        pending.add(entry);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            writer.execute(this::flush);
+        }
+    }
+
+    // Blocks until everything appended so far is in the database. Throws when they could not
+    // be written, so no caller goes on to read or rewrite sales without them.
+    void awaitFlush() {
+        try {
+            writer.submit(this::flush).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to flush journal", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while flushing journal", e);
+        }
+    }
+
+    private void flush() {
+        List<Entry> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty()) return;
+            batch = new ArrayList<>(pending);
+        }
+
+        try {
+            recorder.recordAll(batch);
+        } catch (RuntimeException e) {
+            // Entries stay pending and in the file; a later flush or the next start retries them
+            Log.e(TAG, "Failed to write " + batch.size() + " sale(s), retrying in " + retryDelayMs + " ms", e);
+            scheduleRetry();
+            throw e;
+        }
+
+        synchronized (this) {
+            retryDelayMs = FIRST_RETRY_MS;
+            pending.subList(0, batch.size()).clear();
+            if (pending.isEmpty()) {
+                try {
+                    channel.truncate(0);
+                } catch (IOException e) {
+                    // Harmless: the checkpoint already marks these entries as applied
+                    Log.w(TAG, "Failed to truncate journal", e);
+                }
+            }
+        }
+    }
+
+    private synchronized void scheduleRetry() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            writer.schedule(this::flush, retryDelayMs, TimeUnit.MILLISECONDS);
+        }
+        retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_MS);
+    }
+
+    private void discardPartialWrite(long start) {
+        if (start < 0) return;
+        try {
+            channel.truncate(start);
+            channel.position(start);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to roll back partial journal write", e);
+        }
+    }
+
+    // Leaves out ready to be written: ENTRY_SIZE bytes between position and limit
+    static void encode(Entry entry, ByteBuffer out, CRC32 crc) {
+        out.clear();
+        out.putLong(entry.seq);
+        out.putInt(entry.itemId);
+        out.putDouble(entry.soldPrice);
+        out.putLong(entry.saleTime);
+        crc.reset();
+        crc.update(out.array(), 0, out.position());
+        out.putInt((int) crc.getValue());
+        out.flip();
+    }
+
+    // null when the checksum does not match
+    static Entry decode(ByteBuffer in, CRC32 crc) {
+        crc.reset();
+        crc.update(in.array(), 0, ENTRY_SIZE - 4);
+        Entry entry = new Entry(in.getLong(), in.getInt(), in.getDouble(), in.getLong());
+        return in.getInt() == (int) crc.getValue() ? entry : null;
+    }
+}
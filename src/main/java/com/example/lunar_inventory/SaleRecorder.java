@@ -0,0 +1,242 @@
+package com.example.lunar_inventory;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// Every write to the sale table goes through here. The hot path behind the sale buttons uses
+// precompiled statements and a cached batch id, and each sale is committed together with its
+// item counters and sale_rollup row.
+class SaleRecorder implements SaleJournal.Sink {
+    private final SQLiteDatabase db;
+    private final ChangeBus changes;
+    private final SQLiteStatement insertSale;
+    private final SQLiteStatement updateItemCounters;
+    private final SQLiteStatement updateJournalCheckpoint;
+    private final SQLiteStatement addToRollup;
+    private final SQLiteStatement insertRollup;
+    private final SQLiteStatement pruneRollup;
+    private int currentBatchId = -1;
+
+    SaleRecorder(SQLiteDatabase db, ChangeBus changes) {
+        this.db = db;
+        this.changes = changes;
+        insertSale = db.compileStatement(
+                "INSERT INTO sale (sold_price, sale_time_ms, id_export, id_item) VALUES (?, ?, ?, ?)");
+        updateItemCounters = db.compileStatement(
+                "UPDATE item SET total_sold = total_sold + 1, " +
+                        "current_stock = CASE WHEN current_stock > 0 THEN current_stock - 1 ELSE current_stock END " +
+                        "WHERE id_item = ?");
+        updateJournalCheckpoint = db.compileStatement(
+                "UPDATE sale_journal_checkpoint SET last_seq = ? WHERE id = 1");
+        addToRollup = db.compileStatement(
+                "UPDATE sale_rollup SET quantity = quantity + ?, revenue = revenue + ? " +
+                        "WHERE id_export = ? AND id_item = ? AND sold_price = ?");
+        insertRollup = db.compileStatement(
+                "INSERT INTO sale_rollup (id_export, id_item, sold_price, quantity, revenue) VALUES (?, ?, ?, ?, ?)");
+        pruneRollup = db.compileStatement(
+                "DELETE FROM sale_rollup WHERE id_export = ? AND id_item = ? AND sold_price = ? AND quantity <= 0");
+    }
+
+    synchronized long record(int itemId, double soldPrice) {
+        long saleId;
+        db.beginTransactionNonExclusive();
+        try {
+            saleId = insert(itemId, soldPrice, System.currentTimeMillis());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        changes.publish(new DataChange(DataChange.Type.ITEM_COUNTERS, itemId));
+        return saleId;
+    }
+
+    // Group commit for the journal: all entries plus the new checkpoint in one transaction
+    @Override
+    public synchronized void recordAll(List<SaleJournal.Entry> entries) {
+        if (entries.isEmpty()) return;
+
+        Set<Integer> itemIds = new LinkedHashSet<>();
+        db.beginTransactionNonExclusive();
+        try {
+            for (SaleJournal.Entry entry : entries) {
+                insert(entry.itemId, entry.soldPrice, entry.saleTime);
+                itemIds.add(entry.itemId);
+            }
+            updateJournalCheckpoint.bindLong(1, entries.get(entries.size() - 1).seq);
+            updateJournalCheckpoint.executeUpdateDelete();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        for (int itemId : itemIds) {
+            changes.publish(new DataChange(DataChange.Type.ITEM_COUNTERS, itemId));
+        }
+    }
+
+    synchronized boolean removeSale(int saleId) {
+        SaleRow sale;
+        db.beginTransactionNonExclusive();
+        try {
+            sale = getSaleRow(saleId);
+            if (sale == null) return false;
+
+            db.delete("sale", "id_sale = ?", new String[]{String.valueOf(saleId)});
+            db.execSQL("UPDATE item SET total_sold = total_sold - 1, " +
+                    "current_stock = CASE WHEN current_stock >= 0 THEN current_stock + 1 ELSE current_stock END " +
+                    "WHERE id_item = ?", new Object[]{sale.itemId});
+            adjustRollup(sale.batchId, sale.itemId, sale.soldPrice, -1);
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        changes.publish(new DataChange(DataChange.Type.ITEM_COUNTERS, sale.itemId));
+        changes.publish(new DataChange(DataChange.Type.SALE, saleId));
+        return true;
+    }
+
+    synchronized boolean changeSalePrice(int saleId, double newPrice) {
+        db.beginTransactionNonExclusive();
+        try {
+            SaleRow sale = getSaleRow(saleId);
+            if (sale == null) return false;
+
+            ContentValues values = new ContentValues();
+            values.put("sold_price", newPrice);
+            db.update("sale", values, "id_sale = ?", new String[]{String.valueOf(saleId)});
+            adjustRollup(sale.batchId, sale.itemId, sale.soldPrice, -1);
+            adjustRollup(sale.batchId, sale.itemId, newPrice, 1);
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        changes.publish(new DataChange(DataChange.Type.SALE, saleId));
+        return true;
+    }
+
+    synchronized boolean removeAllSales() {
+        db.beginTransactionNonExclusive();
+        try {
+            int salesDeleted = db.delete("sale", null, null);
+            db.delete("sale_rollup", null, null);
+
+            // Reset all item counters
+            db.execSQL("UPDATE item SET total_sold = 0, current_stock = CASE WHEN current_stock = -1 THEN -1 ELSE current_stock + total_sold END");
+
+            db.setTransactionSuccessful();
+            return salesDeleted > 0;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public synchronized long getJournalCheckpoint() {
+        Cursor cursor = db.rawQuery("SELECT last_seq FROM sale_journal_checkpoint WHERE id = 1", null);
+        long seq = 0;
+        if (cursor.moveToFirst()) {
+            seq = cursor.getLong(0);
+        }
+        cursor.close();
+        return seq;
+    }
+
+    // Adds the next batch and makes it the one sales are booked to, under the same lock as
+    // every sale write, so no journal flush can slip in between and land in the old batch.
+    // Returns the new batch id, or -1 when it could not be added.
+    synchronized long startNewBatch() {
+        Cursor cursor = db.rawQuery("SELECT MAX(id_export) FROM sale_batch", null);
+        int nextBatchId = 1;
+        if (cursor.moveToFirst()) {
+            nextBatchId = cursor.getInt(0) + 1;
+        }
+        cursor.close();
+
+        ContentValues values = new ContentValues();
+        values.put("name", "Batch " + nextBatchId);
+        long batchId = db.insert("sale_batch", null, values);
+        currentBatchId = batchId == -1 ? -1 : (int) batchId;
+        return batchId;
+    }
+
+    private long insert(int itemId, double soldPrice, long saleTime) {
+        int batchId = currentBatchId();
+        insertSale.bindDouble(1, soldPrice);
+        insertSale.bindLong(2, saleTime);
+        insertSale.bindLong(3, batchId);
+        insertSale.bindLong(4, itemId);
+        long saleId = insertSale.executeInsert();
+
+        if (saleId != -1) {
+            updateItemCounters.bindLong(1, itemId);
+            updateItemCounters.executeUpdateDelete();
+            adjustRollup(batchId, itemId, soldPrice, 1);
+        }
+        return saleId;
+    }
+
+    private void adjustRollup(int batchId, int itemId, double soldPrice, int quantity) {
+        addToRollup.bindLong(1, quantity);
+        addToRollup.bindDouble(2, quantity * soldPrice);
+        addToRollup.bindLong(3, batchId);
+        addToRollup.bindLong(4, itemId);
+        addToRollup.bindDouble(5, soldPrice);
+        int rows = addToRollup.executeUpdateDelete();
+
+        if (rows == 0 && quantity > 0) {
+            insertRollup.bindLong(1, batchId);
+            insertRollup.bindLong(2, itemId);
+            insertRollup.bindDouble(3, soldPrice);
+            insertRollup.bindLong(4, quantity);
+            insertRollup.bindDouble(5, quantity * soldPrice);
+            insertRollup.executeInsert();
+        } else if (quantity < 0) {
+            pruneRollup.bindLong(1, batchId);
+            pruneRollup.bindLong(2, itemId);
+            pruneRollup.bindDouble(3, soldPrice);
+            pruneRollup.executeUpdateDelete();
+        }
+    }
+
+    private SaleRow getSaleRow(int saleId) {
+        Cursor cursor = db.rawQuery("SELECT id_export, id_item, IFNULL(sold_price, 0) FROM sale WHERE id_sale = ?",
+                new String[]{String.valueOf(saleId)});
+        SaleRow sale = null;
+        if (cursor.moveToFirst()) {
+            sale = new SaleRow(cursor.getInt(0), cursor.getInt(1), cursor.getDouble(2));
+        }
+        cursor.close();
+        return sale;
+    }
+
+    private static class SaleRow {
+        final int batchId;
+        final int itemId;
+        final double soldPrice;
+
+        SaleRow(int batchId, int itemId, double soldPrice) {
+            this.batchId = batchId;
+            this.itemId = itemId;
+            this.soldPrice = soldPrice;
+        }
+    }
+
+    private int currentBatchId() {
+        if (currentBatchId == -1) {
+            Cursor cursor = db.rawQuery("SELECT id_export FROM sale_batch ORDER BY id_export DESC LIMIT 1", null);
+            currentBatchId = 1;
+            if (cursor.moveToFirst()) {
+                currentBatchId = cursor.getInt(0);
+            }
+            cursor.close();
+        }
+        return currentBatchId;
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.lunar_inventory;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Loads item and category pictures scaled down to the size they are shown at. Decoded
+// thumbnails are kept in a memory cache bounded by bytes, and written to a disk cache so the
+// full-size photo only has to be decoded once. Decoding runs on background threads; a view
+// that is rebound or recycled cancels its pending load.
+class ThumbnailLoader {
+    private static final String TAG = "ThumbnailLoader";
+    // Under the cache directory; MediaCollector sweeps what has not been read in a while
+    static final String DISK_CACHE_DIR = "thumbnails";
+    private static final int DECODE_THREADS = 2;
+    private static final int THUMBNAIL_QUALITY = 85;
+    private static final long PREFETCH_BACKOFF_MS = 50;
+    private static ThumbnailLoader instance;
+
+    private final File diskCacheDir;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final ThreadPoolExecutor decoder = new ThreadPoolExecutor(DECODE_THREADS, DECODE_THREADS,
+            0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+    // Warms the memory cache ahead of navigation, one picture at a time
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Pending load per view; only touched on the main thread
+    private final Map<ImageView, Request> requests = new WeakHashMap<>();
+
+    public static synchronized ThumbnailLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new ThumbnailLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ThumbnailLoader(Context context) {
+        diskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+        // An eighth of the heap, counted in bytes of pixel data
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        memoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    // Shows the picture at path in view, decoded to roughly targetSize pixels on its long side
+    public void load(String path, ImageView view, int targetSize) {
+        String key = path + "@" + targetSize;
+        Request current = requests.get(view);
+        if (current != null) {
+            if (current.key.equals(key)) return;
+            cancel(view);
+        }
+
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+
+        view.setImageResource(android.R.color.transparent);
+        Request request = new Request(key);
+        requests.put(view, request);
+        request.future = decoder.submit(() -> {
+            Bitmap bitmap = loadThumbnail(path, targetSize);
+            if (bitmap == null || Thread.currentThread().isInterrupted()) return;
+            memoryCache.put(key, bitmap);
+            mainHandler.post(() -> {
+                // The view may have been rebound to another picture meanwhile
+                if (requests.get(view) == request) {
+                    requests.remove(view);
+                    view.setImageBitmap(bitmap);
+                }
+            });
+        });
+    }
+
+    // Decodes the pictures into the memory cache before any view asks for them. Runs at
+    // background priority and pauses whenever a view is waiting on a load, so it only ever uses
+    // time the screen does not need. Cancel the returned future to stop it between pictures.
+    public Future<?> prefetch(List<String> paths, int targetSize) {
+        return prefetcher.submit(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            for (String path : paths) {
+                String key = path + "@" + targetSize;
+                if (memoryCache.get(key) != null) continue;
+                try {
+                    while (isLoading()) {
+                        Thread.sleep(PREFETCH_BACKOFF_MS);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                Bitmap bitmap = loadThumbnail(path, targetSize);
+                if (Thread.currentThread().isInterrupted()) return;
+                if (bitmap != null) {
+                    memoryCache.put(key, bitmap);
+                }
+            }
+        });
+    }
+
+    // How many thumbnails of targetSize a prefetch may add, so it never pushes out more than
+    // a quarter of the memory cache
+    public int prefetchBudget(int targetSize) {
+        long bytesEach = Math.max(1L, (long) targetSize * targetSize * 4);
+        return (int) Math.max(1, memoryCache.maxSize() / 4 / bytesEach);
+    }
+
+    private boolean isLoading() {
+        return decoder.getActiveCount() > 0 || !decoder.getQueue().isEmpty();
+    }
+
+    // A full-width preview, as on the add and edit screens
+    public void show(String path, ImageView view) {
+        load(path, view, view.getResources().getDisplayMetrics().widthPixels);
+    }
+
+    // Empties the view; nothing it was loading can land on it afterwards
+    public void clear(ImageView view) {
+        cancel(view);
+        view.setImageResource(android.R.color.transparent);
+    }
+
+    public void cancel(ImageView view) {
+        Request request = requests.remove(view);
+        if (request != null && request.future != null) {
+            request.future.cancel(true);
+        }
+    }
+
+    private Bitmap loadThumbnail(String path, int targetSize) {
+        File source = new File(path);
+        if (!source.exists()) return null;
+
+        // Ingested pictures come with a small copy made for exactly this
+        File ingested = ImageIngest.thumbnailFor(path);
+        if (ingested != null && targetSize <= ImageIngest.THUMBNAIL_SIZE) {
+            return decodeSampled(ingested.getAbsolutePath(), targetSize);
+        }
+
+        File cached = new File(diskCacheDir, diskKey(source, targetSize) + ".jpg");
+        if (cached.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(cached.getAbsolutePath());
+            if (bitmap != null) {
+                // Kept out of MediaCollector's sweep while it is in use
+                cached.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+        }
+
+        Bitmap bitmap = decodeSampled(path, targetSize);
+        if (bitmap != null) {
+            writeDiskCache(cached, bitmap);
+        }
+        return bitmap;
+    }
+
+    // Reads the image size first, then decodes at the largest power-of-two reduction that
+    // still covers targetSize, so a camera photo never reaches the heap at full resolution
+    static Bitmap decodeSampled(String path, int targetSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, targetSize);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+        if (bitmap == null) return null;
+
+        Bitmap scaled = scaleDown(bitmap, targetSize);
+        if (scaled != bitmap) bitmap.recycle();
+        return scaled;
+    }
+
+    // Returns bitmap itself when it already fits
+    static Bitmap scaleDown(Bitmap bitmap, int maxSize) {
+        int longSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longSide <= maxSize) return bitmap;
+
+        float scale = (float) maxSize / longSide;
+        return Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+    }
+
+    static int sampleSize(int width, int height, int targetSize) {
+        int sampleSize = 1;
+        while (Math.max(width, height) / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private void writeDiskCache(File file, Bitmap bitmap) {
+        if (!diskCacheDir.exists() && !diskCacheDir.mkdirs()) return;
+
+        // Written under a temporary name so a half-written thumbnail is never picked up
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache thumbnail for " + file.getName(), e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+        }
+    }
+
+    // Changes whenever the source file is replaced or rewritten
+    private static String diskKey(File source, int targetSize) {
+        String id = source.getAbsolutePath() + "|" + source.lastModified() + "|" + source.length() + "|" + targetSize;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest(id.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(id.hashCode());
+        }
+    }
+
+    private static class Request {
+        final String key;
+        Future<?> future;
+
+        Request(String key) {
+            this.key = key;
+        }
+    }
+}
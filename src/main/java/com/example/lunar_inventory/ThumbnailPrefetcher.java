@@ -0,0 +1,77 @@
+package com.example.lunar_inventory;
+
+import android.os.Looper;
+import android.os.MessageQueue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+// Warms the thumbnails of the screens the home grid is most likely to show next: the inside
+// of each category on screen, then the level above. Work starts only once the main thread
+// goes idle, is capped by ThumbnailLoader.prefetchBudget(), and is dropped as soon as the
+// user goes somewhere else. Main thread only.
+class ThumbnailPrefetcher {
+    private final ThumbnailLoader loader;
+    private final int tileSize;
+    private List<String> pending;
+    private Future<?> running;
+    private MessageQueue.IdleHandler idleHandler;
+
+    ThumbnailPrefetcher(ThumbnailLoader loader, int tileSize) {
+        this.loader = loader;
+        this.tileSize = tileSize;
+    }
+
+    // Replaces whatever was planned for the previous screen
+    void prefetch(CatalogSnapshot catalog, Integer categoryId) {
+        cancel();
+
+        Set<String> paths = new LinkedHashSet<>();
+        for (Category category : catalog.getCategories(categoryId)) {
+            addPictures(paths, catalog, category.id);
+        }
+        if (categoryId != null) {
+            Category current = catalog.getCategory(categoryId);
+            Integer parent = current == null ? null : current.parentCategory;
+            addPictures(paths, catalog, parent == null || parent == 0 ? null : parent);
+        }
+        if (paths.isEmpty()) return;
+
+        List<String> budgeted = new ArrayList<>(paths);
+        int budget = loader.prefetchBudget(tileSize);
+        pending = budgeted.size() > budget ? budgeted.subList(0, budget) : budgeted;
+
+        // Let the tiles on screen ask for their pictures first
+        idleHandler = () -> {
+            idleHandler = null;
+            running = loader.prefetch(pending, tileSize);
+            pending = null;
+            return false;
+        };
+        Looper.myQueue().addIdleHandler(idleHandler);
+    }
+
+    void cancel() {
+        if (idleHandler != null) {
+            Looper.myQueue().removeIdleHandler(idleHandler);
+            idleHandler = null;
+        }
+        pending = null;
+        if (running != null) {
+            running.cancel(true);
+            running = null;
+        }
+    }
+
+    private static void addPictures(Set<String> paths, CatalogSnapshot catalog, Integer categoryId) {
+        for (Category category : catalog.getCategories(categoryId)) {
+            if (category.picture != null && !category.picture.isEmpty()) paths.add(category.picture);
+        }
+        for (Item item : catalog.getItems(categoryId)) {
+            if (item.picture != null && !item.picture.isEmpty()) paths.add(item.picture);
+        }
+    }
+}
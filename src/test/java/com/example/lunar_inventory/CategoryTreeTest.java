@@ -0,0 +1,112 @@
+package com.example.lunar_inventory;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CategoryTreeTest {
+    private static Category category(int id, String name, Integer parent) {
+        return new Category(id, name, null, null, true, parent);
+    }
+
+    // Drinks(1) > Hot(2) > Tea(4), Drinks > Cold(3), Food(5) > Snacks(6); sorted by name
+    private static CategoryTree shopTree() {
+        return new CategoryTree(Arrays.asList(
+                category(3, "Cold", 1),
+                category(1, "Drinks", null),
+                category(5, "Food", null),
+                category(2, "Hot", 1),
+                category(6, "Snacks", 5),
+                category(4, "Tea", 2)));
+    }
+
+    private static List<Integer> ids(CategoryTree tree) {
+        List<Integer> ids = new ArrayList<>();
+        for (CategoryTree.Node node : tree.getNodes()) {
+            ids.add(node.category.id);
+        }
+        return ids;
+    }
+
+    @Test
+    public void nodes_areDepthFirstWithSiblingsInNameOrder() {
+        CategoryTree tree = shopTree();
+        assertEquals(Arrays.asList(1, 3, 2, 4, 5, 6), ids(tree));
+
+        List<Integer> depths = new ArrayList<>();
+        for (CategoryTree.Node node : tree.getNodes()) {
+            depths.add(node.depth);
+        }
+        assertEquals(Arrays.asList(0, 1, 1, 2, 0, 1), depths);
+    }
+
+    @Test
+    public void intervals_spanEachSubtree() {
+        CategoryTree tree = shopTree();
+        CategoryTree.Node drinks = tree.getNode(1);
+        assertEquals(0, drinks.first);
+        assertEquals(3, drinks.last);
+
+        CategoryTree.Node hot = tree.getNode(2);
+        assertEquals(2, hot.first);
+        assertEquals(3, hot.last);
+
+        CategoryTree.Node cold = tree.getNode(3);
+        assertEquals(cold.first, cold.last);
+
+        CategoryTree.Node food = tree.getNode(5);
+        assertEquals(4, food.first);
+        assertEquals(5, food.last);
+    }
+
+    @Test
+    public void isInSubtree_includesTheRootAndEveryDescendant() {
+        CategoryTree tree = shopTree();
+        assertTrue(tree.isInSubtree(1, 1));
+        assertTrue(tree.isInSubtree(2, 1));
+        assertTrue(tree.isInSubtree(3, 1));
+        assertTrue(tree.isInSubtree(4, 1));
+        assertTrue(tree.isInSubtree(4, 2));
+    }
+
+    @Test
+    public void isInSubtree_excludesAncestorsSiblingsAndOtherTrees() {
+        CategoryTree tree = shopTree();
+        assertFalse(tree.isInSubtree(1, 2));
+        assertFalse(tree.isInSubtree(3, 2));
+        assertFalse(tree.isInSubtree(4, 3));
+        assertFalse(tree.isInSubtree(5, 1));
+        assertFalse(tree.isInSubtree(6, 1));
+        assertFalse(tree.isInSubtree(2, 5));
+    }
+
+    @Test
+    public void isInSubtree_isFalseForUnknownIds() {
+        CategoryTree tree = shopTree();
+        assertFalse(tree.isInSubtree(99, 1));
+        assertFalse(tree.isInSubtree(1, 99));
+        assertNull(tree.getNode(99));
+    }
+
+    @Test
+    public void categoriesWithoutReachableParent_areLeftOut() {
+        CategoryTree tree = new CategoryTree(Arrays.asList(
+                category(1, "Drinks", null),
+                category(7, "Orphan", 42),
+                category(8, "Under orphan", 7)));
+        assertEquals(Collections.singletonList(1), ids(tree));
+        assertNull(tree.getNode(7));
+        assertFalse(tree.isInSubtree(8, 7));
+    }
+
+    @Test
+    public void emptyList_givesEmptyTree() {
+        CategoryTree tree = new CategoryTree(Collections.<Category>emptyList());
+        assertTrue(tree.getNodes().isEmpty());
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.lunar_inventory;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ExportReportTest {
+    private static void assertSameAsFormat(double value) {
+        String expected = String.format(Locale.US, "%.2f", value);
+        assertEquals("appendAmount(" + value + ")", expected,
+                ExportReport.appendAmount(new StringBuilder(), value).toString());
+    }
+
+    @Test
+    public void appendAmount_matchesFormatForEveryMillesimal() {
+        for (long i = -200_000; i <= 200_000; i++) {
+            assertSameAsFormat(i / 1000.0);
+        }
+    }
+
+    @Test
+    public void appendAmount_matchesFormatOnHalfCents() {
+        double[] values = {0.005, 0.015, 0.125, 0.145, 0.285, 1.005, 1.115, 2.675, 1310.715, 99999.995};
+        for (double value : values) {
+            assertSameAsFormat(value);
+            assertSameAsFormat(-value);
+        }
+    }
+
+    @Test
+    public void appendAmount_keepsSignOfNegativeZero() {
+        assertSameAsFormat(-0.0);
+        assertSameAsFormat(-0.001);
+        assertSameAsFormat(-0.004);
+        assertSameAsFormat(0.0);
+        assertEquals("-0.00", ExportReport.appendAmount(new StringBuilder(), -0.004).toString());
+    }
+
+    @Test
+    public void appendAmount_matchesFormatForSumsAndProducts() {
+        assertSameAsFormat(0.1 + 0.2);
+        assertSameAsFormat(19.99 * 3);
+        assertSameAsFormat(-19.99 * 7);
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            double price = Math.round(random.nextDouble() * 10_000) / 100.0;
+            assertSameAsFormat(price * (random.nextInt(200) - 100));
+        }
+    }
+
+    @Test
+    public void appendAmount_fallsBackForLargeAndNonFinite() {
+        assertSameAsFormat(1e15);
+        assertSameAsFormat(-123456789012345.67);
+        assertSameAsFormat(Double.MAX_VALUE);
+        assertSameAsFormat(Double.NaN);
+        assertSameAsFormat(Double.NEGATIVE_INFINITY);
+    }
+
+    @Test
+    public void appendAmount_appendsToWhatIsThere() {
+        StringBuilder out = new StringBuilder("Total,");
+        assertSame(out, ExportReport.appendAmount(out, 12.5));
+        assertEquals("Total,12.50", out.toString());
+    }
+}
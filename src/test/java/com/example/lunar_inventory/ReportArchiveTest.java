@@ -0,0 +1,233 @@
+package com.example.lunar_inventory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReportArchiveTest {
+    private static final double DELTA = 1e-9;
+
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("report", ".bin");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    private static void add(ExportReport.Group group, ExportReport.Line line) {
+        group.lines.add(line);
+        group.count += line.quantity;
+        group.total += line.total;
+    }
+
+    private static void addChild(ExportReport.Group parent, ExportReport.Group child) {
+        parent.children.add(child);
+        parent.count += child.count;
+        parent.total += child.total;
+    }
+
+    // Drinks with a line of its own and Hot > Tea below it, plus one uncategorized line
+    private static ExportReport sampleReport() {
+        ExportReport.Group drinks = new ExportReport.Group("Drinks", "None", 0);
+        ExportReport.Group hot = new ExportReport.Group("Hot", "Drinks", 1);
+        ExportReport.Group tea = new ExportReport.Group("Tea", "Hot", 2);
+        add(tea, new ExportReport.Line("Green tea", 1.5, 3.0, 4));
+        add(tea, new ExportReport.Line("Green tea", 3.0, 3.0, 2));
+        addChild(hot, tea);
+        add(drinks, new ExportReport.Line("Water", 0, 1.0, 3));
+        addChild(drinks, hot);
+
+        ExportReport.Group food = new ExportReport.Group("Food", "None", 0);
+        add(food, new ExportReport.Line("Cake", 2.25, 3.0, 1));
+
+        List<ExportReport.Line> uncategorized = new ArrayList<>();
+        uncategorized.add(new ExportReport.Line("Sticker", 0.99, 0.99, 10));
+        return new ExportReport("Batch 3", "2026-10-01 to 2026-10-18",
+                Arrays.asList(drinks, food), uncategorized);
+    }
+
+    private ExportReport roundTrip(ExportReport report) throws IOException {
+        ReportArchive.write(report, file);
+        return ReportArchive.read(new FileInputStream(file));
+    }
+
+    private static void assertLine(ExportReport.Line expected, ExportReport.Line actual) {
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.label, actual.label);
+        assertEquals(expected.soldPrice, actual.soldPrice, DELTA);
+        assertEquals(expected.basePrice, actual.basePrice, DELTA);
+        assertEquals(expected.quantity, actual.quantity);
+        assertEquals(expected.total, actual.total, DELTA);
+    }
+
+    private static void assertGroups(List<ExportReport.Group> expected, List<ExportReport.Group> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            ExportReport.Group want = expected.get(i);
+            ExportReport.Group got = actual.get(i);
+            assertEquals(want.name, got.name);
+            assertEquals(want.parentName, got.parentName);
+            assertEquals(want.depth, got.depth);
+            assertEquals(want.name, want.count, got.count);
+            assertEquals(want.name, want.total, got.total, DELTA);
+            assertEquals(want.lines.size(), got.lines.size());
+            for (int j = 0; j < want.lines.size(); j++) {
+                assertLine(want.lines.get(j), got.lines.get(j));
+            }
+            assertGroups(want.children, got.children);
+        }
+    }
+
+    @Test
+    public void roundTrip_keepsTreeLinesAndTotals() throws IOException {
+        ExportReport report = sampleReport();
+        ExportReport read = roundTrip(report);
+
+        assertEquals(report.title, read.title);
+        assertEquals(report.dateRange, read.dateRange);
+        assertGroups(report.categories, read.categories);
+        assertEquals(report.uncategorized.size(), read.uncategorized.size());
+        assertLine(report.uncategorized.get(0), read.uncategorized.get(0));
+        assertEquals(report.count, read.count);
+        assertEquals(report.total, read.total, DELTA);
+    }
+
+    @Test
+    public void roundTrip_rollsTotalsUpFromTheLines() throws IOException {
+        ExportReport read = roundTrip(sampleReport());
+
+        ExportReport.Group drinks = read.categories.get(0);
+        ExportReport.Group hot = drinks.children.get(0);
+        ExportReport.Group tea = hot.children.get(0);
+        assertEquals(6, tea.count);
+        assertEquals(12.0, tea.total, DELTA);
+        assertEquals(6, hot.count);
+        assertEquals(12.0, hot.total, DELTA);
+        assertEquals(9, drinks.count);
+        assertEquals(12.0, drinks.total, DELTA);
+
+        assertEquals(20, read.count);
+        assertEquals(12.0 + 2.25 + 9.9, read.total, DELTA);
+        assertEquals("Green tea 50% off", tea.lines.get(0).label);
+        assertEquals("Water Free", drinks.lines.get(0).label);
+    }
+
+    @Test
+    public void roundTrip_readsNullTextBackAsEmpty() throws IOException {
+        ExportReport report = new ExportReport("Empty", null,
+                Collections.<ExportReport.Group>emptyList(), Collections.<ExportReport.Line>emptyList());
+        ExportReport read = roundTrip(report);
+
+        assertEquals("Empty", read.title);
+        assertEquals("", read.dateRange);
+        assertTrue(read.categories.isEmpty());
+        assertTrue(read.uncategorized.isEmpty());
+        assertEquals(0, read.count);
+        assertEquals(0, read.total, DELTA);
+    }
+
+    private static byte[] header(int magic, int version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(magic);
+        out.writeShort(version);
+        out.writeUTF("Title");
+        out.writeUTF("");
+        out.writeInt(0);
+        out.writeInt(0);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] withCount(int count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x4C495250);
+        out.writeShort(1);
+        out.writeUTF("Title");
+        out.writeUTF("");
+        out.writeInt(count);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsNegativeCount() throws IOException {
+        ReportArchive.read(new ByteArrayInputStream(withCount(-1)));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsHugeCount() throws IOException {
+        ReportArchive.read(new ByteArrayInputStream(withCount(Integer.MAX_VALUE)));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsCountBeyondTheData() throws IOException {
+        ReportArchive.read(new ByteArrayInputStream(withCount(500_000)));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsEndlessNesting() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x4C495250);
+        out.writeShort(1);
+        out.writeUTF("Title");
+        out.writeUTF("");
+        // Every category holds no lines and one subcategory, far deeper than any real tree
+        for (int i = 0; i < 10_000; i++) {
+            out.writeInt(1);
+            out.writeUTF("Nested");
+            out.writeInt(0);
+        }
+        out.flush();
+        ReportArchive.read(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test
+    public void read_acceptsTheCurrentVersion() throws IOException {
+        ExportReport read = ReportArchive.read(new ByteArrayInputStream(header(0x4C495250, 1)));
+        assertEquals("Title", read.title);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsNewerVersion() throws IOException {
+        ReportArchive.read(new ByteArrayInputStream(header(0x4C495250, 2)));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsOtherFiles() throws IOException {
+        ReportArchive.read(new ByteArrayInputStream(header(0x12345678, 1)));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsTruncatedSnapshot() throws IOException {
+        ReportArchive.write(sampleReport(), file);
+        byte[] whole = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < whole.length) {
+                read += in.read(whole, read, whole.length - read);
+            }
+        }
+        ReportArchive.read(new ByteArrayInputStream(Arrays.copyOf(whole, whole.length / 2)));
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.lunar_inventory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class SaleJournalTest {
+    // Stands in for SaleRecorder: remembers what it was given, and can be made to fail
+    private static class FakeSink implements SaleJournal.Sink {
+        final List<SaleJournal.Entry> recorded = new ArrayList<>();
+        long checkpoint;
+        int failuresLeft;
+
+        @Override
+        public synchronized long getJournalCheckpoint() {
+            return checkpoint;
+        }
+
+        @Override
+        public synchronized void recordAll(List<SaleJournal.Entry> entries) {
+            if (failuresLeft > 0) {
+                failuresLeft--;
+                throw new IllegalStateException("database unavailable");
+            }
+            recorded.addAll(entries);
+            checkpoint = entries.get(entries.size() - 1).seq;
+        }
+    }
+
+    private File file;
+    private FakeSink sink;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("sale_journal", null);
+        sink = new FakeSink();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    private static byte[] encoded(SaleJournal.Entry entry) {
+        ByteBuffer buffer = ByteBuffer.allocate(SaleJournal.ENTRY_SIZE);
+        SaleJournal.encode(entry, buffer, new CRC32());
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private void writeJournal(byte[]... entries) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (byte[] entry : entries) {
+                out.write(entry);
+            }
+        }
+    }
+
+    private static List<Long> seqs(List<SaleJournal.Entry> entries) {
+        List<Long> seqs = new ArrayList<>();
+        for (SaleJournal.Entry entry : entries) {
+            seqs.add(entry.seq);
+        }
+        return seqs;
+    }
+
+    @Test
+    public void encode_fillsOneEntry() {
+        ByteBuffer buffer = ByteBuffer.allocate(SaleJournal.ENTRY_SIZE);
+        SaleJournal.encode(new SaleJournal.Entry(1, 2, 3.5, 4), buffer, new CRC32());
+        assertEquals(0, buffer.position());
+        assertEquals(SaleJournal.ENTRY_SIZE, buffer.limit());
+    }
+
+    @Test
+    public void decode_readsBackWhatWasEncoded() {
+        SaleJournal.Entry entry = new SaleJournal.Entry(Long.MAX_VALUE - 1, 42, -19.99, 1_760_000_000_000L);
+        SaleJournal.Entry decoded = SaleJournal.decode(ByteBuffer.wrap(encoded(entry)), new CRC32());
+
+        assertNotNull(decoded);
+        assertEquals(entry.seq, decoded.seq);
+        assertEquals(entry.itemId, decoded.itemId);
+        assertEquals(entry.soldPrice, decoded.soldPrice, 0);
+        assertEquals(entry.saleTime, decoded.saleTime);
+    }
+
+    @Test
+    public void decode_rejectsAnyFlippedBit() {
+        byte[] bytes = encoded(new SaleJournal.Entry(7, 3, 2.5, 123456789L));
+        for (int i = 0; i < bytes.length * 8; i++) {
+            byte[] corrupt = bytes.clone();
+            corrupt[i / 8] ^= (byte) (1 << (i % 8));
+            assertNull("bit " + i, SaleJournal.decode(ByteBuffer.wrap(corrupt), new CRC32()));
+        }
+    }
+
+    @Test
+    public void recover_replaysOnlyEntriesAfterTheCheckpoint() throws IOException {
+        writeJournal(
+                encoded(new SaleJournal.Entry(1, 10, 1.0, 100)),
+                encoded(new SaleJournal.Entry(2, 11, 2.0, 200)),
+                encoded(new SaleJournal.Entry(3, 12, 3.0, 300)),
+                encoded(new SaleJournal.Entry(4, 13, 4.0, 400)));
+        sink.checkpoint = 2;
+
+        new SaleJournal(file, sink).recover();
+
+        assertEquals(Arrays.asList(3L, 4L), seqs(sink.recorded));
+        assertEquals(12, sink.recorded.get(0).itemId);
+        assertEquals(4.0, sink.recorded.get(1).soldPrice, 0);
+        assertEquals(400, sink.recorded.get(1).saleTime);
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void recover_stopsAtATornOrCorruptEntry() throws IOException {
+        byte[] corrupt = encoded(new SaleJournal.Entry(3, 12, 3.0, 300));
+        corrupt[9] ^= 1;
+        byte[] torn = Arrays.copyOf(encoded(new SaleJournal.Entry(2, 11, 2.0, 200)), 10);
+
+        writeJournal(encoded(new SaleJournal.Entry(1, 10, 1.0, 100)), corrupt,
+                encoded(new SaleJournal.Entry(4, 13, 4.0, 400)));
+        new SaleJournal(file, sink).recover();
+        assertEquals(Arrays.asList(1L), seqs(sink.recorded));
+
+        sink.recorded.clear();
+        sink.checkpoint = 0;
+        writeJournal(encoded(new SaleJournal.Entry(1, 10, 1.0, 100)), torn);
+        new SaleJournal(file, sink).recover();
+        assertEquals(Arrays.asList(1L), seqs(sink.recorded));
+    }
+
+    @Test
+    public void recover_writesNothingWhenEverythingIsCheckpointed() throws IOException {
+        writeJournal(encoded(new SaleJournal.Entry(1, 10, 1.0, 100)));
+        sink.checkpoint = 1;
+
+        new SaleJournal(file, sink).recover();
+
+        assertTrue(sink.recorded.isEmpty());
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void append_continuesAfterTheHighestReplayedSeq() throws IOException {
+        writeJournal(encoded(new SaleJournal.Entry(5, 10, 1.0, 100)));
+        sink.checkpoint = 2;
+        SaleJournal journal = new SaleJournal(file, sink);
+        journal.recover();
+
+        journal.append(20, 9.5);
+        journal.append(21, 0.5);
+        journal.awaitFlush();
+
+        assertEquals(Arrays.asList(5L, 6L, 7L), seqs(sink.recorded));
+        assertEquals(20, sink.recorded.get(1).itemId);
+        assertEquals(0.5, sink.recorded.get(2).soldPrice, 0);
+    }
+
+    @Test
+    public void awaitFlush_throwsWhenTheSalesCouldNotBeWritten() throws IOException {
+        SaleJournal journal = new SaleJournal(file, sink);
+        journal.recover();
+        journal.append(20, 9.5);
+        journal.awaitFlush();
+        sink.recorded.clear();
+
+        sink.failuresLeft = Integer.MAX_VALUE;
+        journal.append(21, 1.0);
+        try {
+            journal.awaitFlush();
+            fail("awaitFlush returned although the sale was not written");
+        } catch (IllegalStateException expected) {
+            // the sale stays in the file for the retry or the next start
+        }
+        assertTrue(sink.recorded.isEmpty());
+        assertEquals(SaleJournal.ENTRY_SIZE, file.length());
+
+        sink.failuresLeft = 0;
+        journal.awaitFlush();
+        assertEquals(Arrays.asList(2L), seqs(sink.recorded));
+        assertEquals(0, file.length());
+    }
+}